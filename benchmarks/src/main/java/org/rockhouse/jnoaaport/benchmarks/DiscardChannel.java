@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A channel that throws away everything written to it, so benchmarks can
+ * measure producing the bytes and not storing them.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class DiscardChannel implements WritableByteChannel {
+	
+	private long written;
+	
+	@Override
+	public int write(ByteBuffer src) {
+		int length = src.remaining();
+		src.position(src.limit());
+		written += length;
+		return length;
+	}
+	
+	public long getWritten() {
+		return written;
+	}
+	
+	@Override
+	public boolean isOpen() {
+		return true;
+	}
+	
+	@Override
+	public void close() {
+	}
+}
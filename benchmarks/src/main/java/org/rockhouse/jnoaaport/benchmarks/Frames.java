@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.rockhouse.jnoaaport.dvbs.SyntheticTraffic;
+
+/**
+ * A fixed set of synthetic SBN frames for benchmarks to cycle through.
+ * Only whole products are kept, so going round the set again sends the
+ * same products afresh.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class Frames {
+	
+	private static final int MAX_MSG = 10000;
+	
+	private final ByteBuffer[] buffers;
+	
+	private final int[] lengths;
+	
+	private Frames(ByteBuffer[] buffers, int[] lengths) {
+		this.buffers = buffers;
+		this.lengths = lengths;
+	}
+	
+	/**
+	 * Takes at least the given number of frames from a generator, stopping
+	 * at the end of a product.  Each frame gets a direct buffer of its own,
+	 * like a received packet.
+	 * 
+	 * @param traffic the generator
+	 * @param count the fewest frames to take
+	 * @return the frames
+	 */
+	public static Frames generate(SyntheticTraffic traffic, int count) {
+		ByteBuffer[] buffers = new ByteBuffer[count * 2];
+		int[] lengths = new int[count * 2];
+		int n = 0;
+		while (true) {
+			if (n == buffers.length) {
+				buffers = Arrays.copyOf(buffers, n * 2);
+				lengths = Arrays.copyOf(lengths, n * 2);
+			}
+			long products = traffic.getProducts();
+			ByteBuffer frame = ByteBuffer.allocateDirect(MAX_MSG);
+			int length = traffic.nextFrame(frame);
+			if (n >= count && traffic.getProducts() != products) {
+				// First block of a product that wouldn't be finished
+				break;
+			}
+			buffers[n] = frame;
+			lengths[n] = length;
+			n++;
+		}
+		return new Frames(Arrays.copyOf(buffers, n), Arrays.copyOf(lengths, n));
+	}
+	
+	/**
+	 * Makes frames from a mix of short text bulletins only, so every frame
+	 * is the first and only block of its product.
+	 * 
+	 * @param count number of frames
+	 * @return the frames
+	 */
+	public static Frames textBulletins(int count) {
+		SyntheticTraffic traffic = new SyntheticTraffic(97, 5);
+		traffic.addProduct("SXUS## K@@@", 1, 100, 2000, false, 1);
+		return generate(traffic, count);
+	}
+	
+	/**
+	 * Makes frames from a mix resembling the NWSTG datastream, compressed
+	 * products included.
+	 * 
+	 * @param count the fewest frames to make
+	 * @return the frames
+	 */
+	public static Frames defaultMix(int count) {
+		SyntheticTraffic traffic = new SyntheticTraffic(97, 5);
+		traffic.addDefaultMix();
+		return generate(traffic, count);
+	}
+	
+	public int size() {
+		return buffers.length;
+	}
+	
+	public ByteBuffer getBuffer(int index) {
+		return buffers[index];
+	}
+	
+	public int getLength(int index) {
+		return lengths[index];
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.product;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rockhouse.jnoaaport.benchmarks.DiscardChannel;
+
+/**
+ * Fills a {@link ProductContainer} with fragments and drains it to a 
+ * channel, once per operation, with and without assembling the fragments
+ * into a single buffer.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FragmentBenchmark {
+	
+	private static final int FRAGMENT_SIZE = 4000;
+	
+	@Param({ "false", "true" })
+	public boolean assembled;
+	
+	@Param({ "1", "16", "128" })
+	public int fragments;
+	
+	private ByteBuffer frame;
+	
+	private final DiscardChannel channel = new DiscardChannel();
+	
+	@Setup
+	public void setUp() {
+		frame = ByteBuffer.allocateDirect(FRAGMENT_SIZE);
+		for (int i = 0; i < FRAGMENT_SIZE; i++) {
+			frame.put(i, (byte) i);
+		}
+	}
+	
+	@Benchmark
+	public long appendAndDrain() throws ProductContainerException, IOException {
+		ProductContainer product = new ProductContainer(assembled);
+		product.initProduct(1, fragments);
+		for (int i = 0; i < fragments; i++) {
+			product.addFragment(1, (short) i, frame, 0, FRAGMENT_SIZE, false);
+		}
+		return product.writeTo(channel);
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.readnoaaport;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rockhouse.jnoaaport.benchmarks.Frames;
+import org.rockhouse.jnoaaport.product.ProductContainer;
+import org.rockhouse.jnoaaport.writer.FileWriter;
+
+/**
+ * Takes a set of frames all the way to files on one thread: reassembly,
+ * inflating the compressed products and writing each product to a file 
+ * of its own with the {@link FileWriter}.  Scores are in frames per
+ * second.  Files go to a temporary directory that is emptied after every
+ * iteration.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+	
+	private static final int FRAMES = 2048;
+	
+	private Frames frames;
+	
+	private Path directory;
+	
+	private ArrayDeque<ProductContainer> products;
+	
+	private NOAAPortReader reader;
+	
+	private FileWriter writer;
+	
+	private int next;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		frames = Frames.defaultMix(FRAMES);
+		directory = Files.createTempDirectory("jnoaaport-bench");
+		products = new ArrayDeque<ProductContainer>();
+		reader = new NOAAPortReader(products);
+		reader.setTrackSbnSequence(false);
+		writer = new FileWriter(directory.toString());
+		writer.start();
+	}
+	
+	@TearDown(Level.Iteration)
+	public void emptyDirectory() throws IOException {
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+		try {
+			for (Path file : files) {
+				Files.delete(file);
+			}
+		} finally {
+			files.close();
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		writer.stop();
+		emptyDirectory();
+		Files.delete(directory);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public void packetsToFiles() {
+		for (int i = 0; i < FRAMES; i++) {
+			if (++next == frames.size()) {
+				next = 0;
+			}
+			reader.processPacket(frames.getBuffer(next), 0, frames.getLength(next));
+			ProductContainer product;
+			while ((product = products.poll()) != null) {
+				writer.onProduct(product);
+			}
+		}
+	}
+}
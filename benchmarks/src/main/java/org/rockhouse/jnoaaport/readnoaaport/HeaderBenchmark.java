@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.readnoaaport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rockhouse.jnoaaport.benchmarks.Frames;
+
+/**
+ * Decodes the headers of one frame per operation: the frame level header
+ * with its checksum, the product definition header, the product specific
+ * header, the CCB and the WMO heading.  Every frame is the first block of
+ * a text bulletin.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderBenchmark {
+	
+	private static final int PDH_OFFSET = 16;
+	
+	private static final int PSH_OFFSET = 32;
+	
+	private static final int PSH_LENGTH = 36;
+	
+	private static final int DATA_OFFSET = PSH_OFFSET + PSH_LENGTH;
+	
+	private Frames frames;
+	
+	private int next;
+	
+	private final FrameLevelHeader flheader = new FrameLevelHeader();
+	
+	private final ProductDefinitionHeader pdheader = new ProductDefinitionHeader();
+	
+	private final ProductSpecificHeader psheader = new ProductSpecificHeader();
+	
+	private final WmoHeader wmoHeader = new WmoHeader();
+	
+	@Setup
+	public void setUp() {
+		frames = Frames.textBulletins(1024);
+	}
+	
+	private ByteBuffer nextFrame() {
+		if (++next == frames.size()) {
+			next = 0;
+		}
+		return frames.getBuffer(next);
+	}
+	
+	@Benchmark
+	public long frameLevelHeader() {
+		ByteBuffer frame = nextFrame();
+		flheader.readHeader(frame, 0);
+		return flheader.getSequenceNumber() + flheader.getDatastream();
+	}
+	
+	@Benchmark
+	public long productDefinitionHeader() {
+		ByteBuffer frame = nextFrame();
+		pdheader.readHeader(frame, PDH_OFFSET);
+		return pdheader.getSequenceNumber() + pdheader.getBlockNumber() + pdheader.getBlockSize() + pdheader.getSpecificHeaderLength();
+	}
+	
+	@Benchmark
+	public long allHeaders() {
+		ByteBuffer frame = nextFrame();
+		flheader.readHeader(frame, 0);
+		pdheader.readHeader(frame, PDH_OFFSET);
+		psheader.readHeader(frame, PSH_OFFSET, pdheader.getSpecificHeaderLength());
+		return flheader.getSequenceNumber() + pdheader.getSequenceNumber() + psheader.getFragments() + psheader.getProductSpecificCategory();
+	}
+	
+	@Benchmark
+	public boolean readCcb() {
+		ByteBuffer frame = nextFrame();
+		pdheader.readHeader(frame, PDH_OFFSET);
+		return psheader.readCCB(frame, DATA_OFFSET, pdheader.getBlockSize());
+	}
+	
+	@Benchmark
+	public String productName() {
+		ByteBuffer frame = nextFrame();
+		pdheader.readHeader(frame, PDH_OFFSET);
+		psheader.readCCB(frame, DATA_OFFSET, pdheader.getBlockSize());
+		return psheader.getProductName();
+	}
+	
+	@Benchmark
+	public long wmoHeading() {
+		ByteBuffer frame = nextFrame();
+		int ccbLength = 2 * (((frame.get(DATA_OFFSET) & 63) << 8) + (frame.get(DATA_OFFSET + 1) & 0xFF));
+		wmoHeader.parse(frame, DATA_OFFSET + ccbLength, frames.getLength(next) - DATA_OFFSET - ccbLength);
+		return wmoHeader.getTTAAiiCode() + wmoHeader.getCCCCCode();
+	}
+}
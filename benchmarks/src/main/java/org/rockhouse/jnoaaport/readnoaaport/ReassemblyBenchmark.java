@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.readnoaaport;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rockhouse.jnoaaport.benchmarks.DiscardQueue;
+import org.rockhouse.jnoaaport.benchmarks.Frames;
+
+/**
+ * Pushes one frame per operation through {@link NOAAPortReader}: header
+ * decode, the reassembly table and fragment copies, up to the completed
+ * product being queued.  Text bulletins are mostly single frames; the
+ * default mix adds multi-block and compressed products.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReassemblyBenchmark {
+	
+	@Param({ "text", "mix" })
+	public String traffic;
+	
+	private Frames frames;
+	
+	private NOAAPortReader reader;
+	
+	private int next;
+	
+	@Setup
+	public void setUp() {
+		frames = "text".equals(traffic) ? Frames.textBulletins(4096) : Frames.defaultMix(4096);
+		reader = new NOAAPortReader(new DiscardQueue());
+		// The frames go round and round, which would look like one big gap
+		reader.setTrackSbnSequence(false);
+	}
+	
+	@Benchmark
+	public void processPacket() {
+		if (++next == frames.size()) {
+			next = 0;
+		}
+		reader.processPacket(frames.getBuffer(next), 0, frames.getLength(next));
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rockhouse.jnoaaport.benchmarks.DiscardChannel;
+import org.rockhouse.jnoaaport.product.ProductContainer;
+import org.rockhouse.jnoaaport.product.ProductContainerException;
+
+/**
+ * Inflates a compressed product with the {@link ProductInflater}, once per
+ * operation.  Each of the product's blocks is a zlib stream of its own, as
+ * on the SBN.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InflateBenchmark {
+	
+	private static final int BLOCK_SIZE = 4000;
+	
+	@Param({ "false", "true" })
+	public boolean assembled;
+	
+	@Param({ "20000", "200000" })
+	public int productSize;
+	
+	private ProductContainer product;
+	
+	private ProductInflater inflater;
+	
+	private final DiscardChannel channel = new DiscardChannel();
+	
+	@Setup
+	public void setUp() throws ProductContainerException {
+		Random random = new Random(97);
+		byte[] data = new byte[productSize];
+		for (int i = 0; i < data.length; i++) {
+			// About as compressible as imagery
+			data[i] = (byte) (random.nextInt(16) * (i % 7 == 0 ? 16 : 1));
+		}
+		int blocks = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		product = new ProductContainer(assembled);
+		product.initProduct(1, blocks);
+		Deflater deflater = new Deflater();
+		byte[] out = new byte[BLOCK_SIZE + 64];
+		for (int i = 0; i < blocks; i++) {
+			deflater.reset();
+			deflater.setInput(data, i * BLOCK_SIZE, Math.min(BLOCK_SIZE, data.length - i * BLOCK_SIZE));
+			deflater.finish();
+			int length = deflater.deflate(out);
+			product.addFragment(1, (short) i, ByteBuffer.wrap(Arrays.copyOf(out, length)), 0, length, true);
+		}
+		deflater.end();
+		inflater = new ProductInflater();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		inflater.end();
+	}
+	
+	@Benchmark
+	public long inflate() throws IOException, DataFormatException {
+		return inflater.inflateTo(product, channel);
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.application;
+
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rockhouse.jnoaaport.dvbs.SyntheticSender;
+import org.rockhouse.jnoaaport.dvbs.SyntheticTraffic;
+import org.rockhouse.jnoaaport.log.Logging;
+
+
+/**
+ * Multicasts made up NOAAPort traffic over the loopback interface so 
+ * {@link RunIngest}, run with -Djnoaaport.nic=127.0.0.1, can be load and
+ * soak tested without a dish.
+ * 
+ * Arguments, all optional: the channel's multicast address (224.0.1.1), 
+ * frames per second (2000), and the loss, duplicate and reorder rates (0).
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class RunGenerator {
+
+	private static final Logger LOG = Logger.getLogger(RunGenerator.class.getName());
+
+	public static void main(String[] args) {
+		
+		Logging.install(Level.INFO);
+		
+		String address = args.length > 0 ? args[0] : "224.0.1.1";
+		double rate = args.length > 1 ? Double.parseDouble(args[1]) : 2000;
+		SyntheticTraffic traffic = new SyntheticTraffic();
+		traffic.addDefaultMix();
+		traffic.setLossRate(args.length > 2 ? Double.parseDouble(args[2]) : 0);
+		traffic.setDuplicateRate(args.length > 3 ? Double.parseDouble(args[3]) : 0);
+		traffic.setReorderRate(args.length > 4 ? Double.parseDouble(args[4]) : 0);
+		
+		SyntheticSender sender;
+		try {
+			sender = new SyntheticSender(traffic, address, "127.0.0.1", rate, Long.MAX_VALUE);
+		} catch (UnknownHostException e) {
+			LOG.log(Level.SEVERE, "Bad multicast address", e);
+			return;
+		} catch (SocketException e) {
+			LOG.log(Level.SEVERE, "Bad network interface", e);
+			return;
+		}
+		new Thread(sender, "generator").start();
+	}
+
+}
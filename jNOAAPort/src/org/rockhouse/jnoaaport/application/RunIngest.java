@@ -22,12 +22,33 @@
 
 package org.rockhouse.jnoaaport.application;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import org.rockhouse.jnoaaport.dvbs.MulticastReader;
+import org.rockhouse.jnoaaport.dvbs.CaptureWriter;
+import org.rockhouse.jnoaaport.dvbs.MultiChannelReader;
+import org.rockhouse.jnoaaport.log.Logging;
+import org.rockhouse.jnoaaport.metrics.JmxExporter;
+import org.rockhouse.jnoaaport.metrics.MetricsRegistry;
+import org.rockhouse.jnoaaport.metrics.PrometheusExporter;
+import org.rockhouse.jnoaaport.product.ProductContainer;
+import org.rockhouse.jnoaaport.queue.OverflowPolicy;
+import org.rockhouse.jnoaaport.queue.WaitStrategy;
 import org.rockhouse.jnoaaport.readnoaaport.NOAAPortReader;
-import org.rockhouse.jnoaaport.writer.ProductHandlerInterface;
+import org.rockhouse.jnoaaport.readnoaaport.ShardedReader;
+import org.rockhouse.jnoaaport.writer.DecompressionStage;
+import org.rockhouse.jnoaaport.writer.ProductDispatcher;
+import org.rockhouse.jnoaaport.writer.ProductHandler;
+import org.rockhouse.jnoaaport.writer.RoutingTable;
 
 
 /**
@@ -39,41 +60,139 @@ import org.rockhouse.jnoaaport.writer.ProductHandlerInterface;
  */
 public class RunIngest {
 
+	private static final Logger LOG = Logger.getLogger(RunIngest.class.getName());
+
 	public static void main(String[] args) {
 		
-		ProductHandlerInterface fw = null;
+		// Everything logs through an async handler so ingest never waits on the console
+		Logging.install(Level.INFO);
+		
+		ProductHandler fw = null;
 		ClassLoader cl = RunIngest.class.getClassLoader();
 		try{
 			Class<?> aClass = cl.loadClass("org.rockhouse.jnoaaport.writer.FileWriter");
-			fw = (ProductHandlerInterface)aClass.newInstance();
+			fw = (ProductHandler)aClass.newInstance();
 		} catch (ClassNotFoundException e){
-			e.printStackTrace();
+			LOG.log(Level.SEVERE, "Could not find the writer", e);
 		} catch (InstantiationException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			LOG.log(Level.SEVERE, "Could not create the writer", e);
 		} catch (IllegalAccessException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			LOG.log(Level.SEVERE, "Could not create the writer", e);
 		}
 		
-		MulticastReader mReader1 = null;
+		// One reader per channel, all feeding the same writer through the inflaters
+		final BlockingQueue<ProductContainer> products = new LinkedBlockingQueue<ProductContainer>();
+		
+		// -Djnoaaport.shards=n spreads each channel's reassembly over n threads
+		int shards = Integer.getInteger("jnoaaport.shards", 1);
+		ShardedReader[] sharded = new ShardedReader[MultiChannelReader.ALL_CHANNELS.length];
+		int downstreamBuffers = 0;
+		if (shards > 1) {
+			for (int i = 0; i < sharded.length; i++) {
+				sharded[i] = new ShardedReader(shards, products);
+			}
+			// The workers' queues hold on to buffers from the channel's pool
+			downstreamBuffers = sharded[0].getBufferCapacity();
+		}
+		
+		MultiChannelReader dvbs = null;
 		try {
-			mReader1 = new MulticastReader("224.0.1.2", "172.16.198.1");
+			// -Djnoaaport.nic=127.0.0.1 listens to RunGenerator instead of the dish
+			// -Djnoaaport.queue=packets sizes each channel's queue and buffer pool
+			int capacity = Integer.getInteger("jnoaaport.queue", MultiChannelReader.DEFAULT_QUEUE_CAPACITY);
+			dvbs = new MultiChannelReader(MultiChannelReader.ALL_CHANNELS, System.getProperty("jnoaaport.nic", "172.16.198.1"),
+					capacity, WaitStrategy.PARK, OverflowPolicy.DROP, downstreamBuffers);
 		} catch (UnknownHostException e) {
 			// Print error if the multicast addy is bad
-			e.printStackTrace();
+			LOG.log(Level.SEVERE, "Bad multicast address", e);
 		} catch (SocketException e) {
 			// Print an error if the specified NIC is bad
-			e.printStackTrace();
+			LOG.log(Level.SEVERE, "Bad network interface", e);
 		}
 		
-		NOAAPortReader reader = new NOAAPortReader();
-		fw.setProductHandlerQueue(reader.getProductContainerQueue());
+		// Everything counts into one registry, ready to be exported
+		MetricsRegistry metrics = new MetricsRegistry();
+		dvbs.registerMetrics(metrics);
+		
+		// -Djnoaaport.capture=file records the raw feed for replay later
+		String capturePath = System.getProperty("jnoaaport.capture");
+		if (capturePath != null) {
+			try {
+				final CaptureWriter capture = new CaptureWriter(Paths.get(capturePath));
+				dvbs.setCaptureWriter(capture);
+				Runtime.getRuntime().addShutdownHook(new Thread("capture-close") {
+					@Override
+					public void run() {
+						try {
+							capture.close();
+						} catch (IOException e) {
+							LOG.log(Level.WARNING, "Could not close the capture", e);
+						}
+					}
+				});
+			} catch (IOException e) {
+				LOG.log(Level.SEVERE, "Could not open capture " + capturePath, e);
+				return;
+			}
+		}
+		
+		DecompressionStage inflaters = new DecompressionStage(products, Runtime.getRuntime().availableProcessors());
+		inflaters.registerMetrics(metrics);
+		metrics.gauge("noaaport_product_queue_depth", "Completed products waiting to be inflated", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return products.size();
+			}
+		});
+		// Further handlers can be added here; each gets its own queue and thread.
+		// An optional routing table limits what gets written.
+		RoutingTable routes = null;
+		if (args.length > 0) {
+			routes = new RoutingTable();
+			try {
+				BufferedReader reader = new BufferedReader(new FileReader(args[0]));
+				try {
+					routes.load(reader);
+				} finally {
+					reader.close();
+				}
+			} catch (IOException e) {
+				LOG.log(Level.SEVERE, "Could not read routing table " + args[0], e);
+				return;
+			}
+		}
+		ProductDispatcher dispatcher = new ProductDispatcher(inflaters.getOutputQueue());
+		dispatcher.addHandler(fw, 1024, OverflowPolicy.BLOCK, routes);
+		dispatcher.registerMetrics(metrics);
+		int[] channels = dvbs.getChannelNumbers();
+		for (int i = 0; i < channels.length; i++) {
+			int channel = channels[i];
+			// Don't bother reassembling what nobody wants
+			if (sharded[i] != null) {
+				sharded[i].setSharedQueue(dvbs.getQueue(channel));
+				sharded[i].setProductFilter(dispatcher);
+				sharded[i].registerMetrics(metrics, "channel", String.valueOf(channel));
+				new Thread(sharded[i], "reader" + channel).start();
+			} else {
+				NOAAPortReader reader = new NOAAPortReader(products);
+				reader.setSharedQueue(dvbs.getQueue(channel));
+				reader.setProductFilter(dispatcher);
+				reader.registerMetrics(metrics, "channel", String.valueOf(channel));
+				new Thread(reader, "reader" + channel).start();
+			}
+		}
+		
+		// Publish the metrics over JMX and at http://localhost:9109/metrics
+		new JmxExporter(metrics).register();
+		try {
+			new PrometheusExporter(metrics).start();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Could not start the metrics endpoint", e);
+		}
 		
-		reader.setSharedQueue(mReader1.getQueue());
-		Thread thread1 = new Thread(mReader1, "dvbs1");
-		Thread thread2 = new Thread(reader, "reader1");
-		Thread thread3 = new Thread(fw, "fileWriter");
+		Thread thread1 = new Thread(dvbs, "dvbs");
+		Thread thread2 = new Thread(inflaters, "decompress");
+		Thread thread3 = new Thread(dispatcher, "dispatcher");
 		
 		thread3.start();
 		thread2.start();
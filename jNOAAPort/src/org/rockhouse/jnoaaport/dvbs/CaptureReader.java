@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Reads the frames back out of a capture file made by a 
+ * {@link CaptureWriter}, one at a time and in the order they were recorded.
+ * A record cut short by a crash ends the capture.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class CaptureReader implements Closeable {
+	
+	private static final Logger LOG = Logger.getLogger(CaptureReader.class.getName());
+	
+	private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+	
+	private final Path path;
+	
+	private final FileChannel file;
+	
+	private final ByteBuffer buffer;
+	
+	private long timestamp;
+	
+	private int channel;
+	
+	/**
+	 * Opens a capture file.
+	 * 
+	 * @param path the capture file
+	 * @throws IOException if the file can't be opened or isn't a capture file
+	 */
+	public CaptureReader(Path path) throws IOException {
+		this.path = path;
+		file = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			checkHeader(file, path);
+			file.position(CaptureWriter.FILE_HEADER_LENGTH);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+		buffer.limit(0);
+	}
+	
+	/**
+	 * Reads the next frame into a buffer.  The buffer is cleared first and
+	 * left positioned after the frame.
+	 * 
+	 * @param dst buffer to read the frame into
+	 * @return the length of the frame, or -1 at the end of the capture
+	 * @throws IOException if the file can't be read or the frame doesn't fit
+	 */
+	public int next(ByteBuffer dst) throws IOException {
+		if (!fill(CaptureWriter.RECORD_HEADER_LENGTH)) {
+			return -1;
+		}
+		timestamp = buffer.getLong();
+		channel = buffer.getShort() & 0xFFFF;
+		int length = buffer.getShort() & 0xFFFF;
+		if (!fill(length)) {
+			LOG.warning(path + " ends part way through a frame");
+			return -1;
+		}
+		dst.clear();
+		if (dst.remaining() < length) {
+			throw new IOException("Frame of " + length + " bytes in " + path + " is larger than the buffer");
+		}
+		int limit = buffer.limit();
+		buffer.limit(buffer.position() + length);
+		dst.put(buffer);
+		buffer.limit(limit);
+		return length;
+	}
+	
+	/**
+	 * Gets when the last frame read was received.
+	 * 
+	 * @return microseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * Gets the channel the last frame read came from.
+	 * 
+	 * @return the NOAAPort channel number
+	 */
+	public int getChannel() {
+		return channel;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+	
+	/**
+	 * Makes sure at least the given number of bytes are buffered.
+	 * 
+	 * @param count bytes needed
+	 * @return false if the file ended first
+	 * @throws IOException
+	 */
+	private boolean fill(int count) throws IOException {
+		if (buffer.remaining() >= count) {
+			return true;
+		}
+		buffer.compact();
+		while (buffer.position() < count) {
+			if (file.read(buffer) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		return buffer.remaining() >= count;
+	}
+	
+	/**
+	 * Checks that a file starts with a capture header this code understands.
+	 * 
+	 * @param file the open file
+	 * @param path name of the file, for error messages
+	 * @throws IOException if the header is missing or from a newer version
+	 */
+	static void checkHeader(FileChannel file, Path path) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(CaptureWriter.FILE_HEADER_LENGTH);
+		while (header.hasRemaining()) {
+			if (file.read(header, header.position()) < 0) {
+				throw new IOException(path + " is too short to be a capture file");
+			}
+		}
+		if (header.getInt(0) != CaptureWriter.MAGIC) {
+			throw new IOException(path + " is not a capture file");
+		}
+		if (header.getShort(4) > CaptureWriter.VERSION) {
+			throw new IOException(path + " is capture version " + header.getShort(4) + ", only " + CaptureWriter.VERSION + " is understood");
+		}
+	}
+}
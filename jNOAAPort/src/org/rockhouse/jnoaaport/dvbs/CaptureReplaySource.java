@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rockhouse.jnoaaport.queue.OverflowPolicy;
+import org.rockhouse.jnoaaport.queue.SpscRingBuffer;
+import org.rockhouse.jnoaaport.queue.WaitStrategy;
+
+/**
+ * Plays a capture file made by a {@link CaptureWriter} back onto a queue,
+ * standing in for a live receiver so a {@link 
+ * org.rockhouse.jnoaaport.readnoaaport.NOAAPortReader} can be load tested
+ * or fed what was missed during an outage.
+ * 
+ * Frames can be played at the pace they were received, sped up by some 
+ * factor, or as fast as the reader will take them.  Unlike the live
+ * receivers, the queue waits for the reader rather than dropping frames.
+ * 
+ * Each channel has its own SBN sequence, so each channel needs its own 
+ * source and reader, just as it would live.  A reader fed every channel at
+ * once sees the sequences of the other channels as gaps.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class CaptureReplaySource implements PacketSource {
+	
+	private static final Logger LOG = Logger.getLogger(CaptureReplaySource.class.getName());
+	
+	/** Plays frames at the pace they were received. */
+	public static final double ORIGINAL_SPEED = 1.0;
+	
+	/** Plays frames without waiting between them. */
+	public static final double AS_FAST_AS_POSSIBLE = 0;
+	
+	/** 
+	 * Plays the frames of every channel.  Only suits a reader that isn't
+	 * tracking the SBN sequence.
+	 */
+	public static final int ALL_CHANNELS = 0;
+	
+	private static final int MAX_MSG = 10000;
+	
+	private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+	
+	// Buffers that can be out of the queue at once: one being filled, one being read
+	private static final int IN_FLIGHT_BUFFERS = 2;
+	
+	// Longest single wait, so a stop request is noticed during long gaps
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	
+	private final Path path;
+	
+	private final int channel;
+	
+	private final double speed;
+	
+	private SpscRingBuffer<PacketBuffer> sharedQueue;
+	
+	private PacketBufferPool packetPool;
+	
+	private volatile boolean stopRequest = false;
+	
+	private volatile boolean finished = false;
+	
+	private volatile Thread runner;
+	
+	private volatile long frames;
+	
+	/**
+	 * Creates a source playing one channel of a capture at its original
+	 * pace.
+	 * 
+	 * @param path the capture file
+	 * @param channel the channel to play
+	 */
+	public CaptureReplaySource(Path path, int channel) {
+		this(path, channel, ORIGINAL_SPEED);
+	}
+	
+	/**
+	 * Creates a source playing one channel of a capture.
+	 * 
+	 * @param path the capture file
+	 * @param channel the channel to play, or {@link #ALL_CHANNELS}
+	 * @param speed how many times faster than received to play the frames,
+	 * or {@link #AS_FAST_AS_POSSIBLE}
+	 */
+	public CaptureReplaySource(Path path, int channel, double speed) {
+		this(path, channel, speed, DEFAULT_QUEUE_CAPACITY, WaitStrategy.PARK);
+	}
+	
+	/**
+	 * Creates a source playing one channel of a capture through a queue of
+	 * the given capacity.
+	 * 
+	 * @param path the capture file
+	 * @param channel the channel to play, or {@link #ALL_CHANNELS}
+	 * @param speed how many times faster than received to play the frames,
+	 * or {@link #AS_FAST_AS_POSSIBLE}
+	 * @param capacity number of frames the queue can hold
+	 * @param waitStrategy how the consumer waits for frames
+	 */
+	public CaptureReplaySource(Path path, int channel, double speed, int capacity, WaitStrategy waitStrategy) {
+		this(path, channel, speed, capacity, waitStrategy, 0);
+	}
+	
+	/**
+	 * Creates a source playing one channel of a capture through a queue of
+	 * the given capacity.  The packet pool also covers the buffers the 
+	 * consumer holds on to.
+	 * 
+	 * @param path the capture file
+	 * @param channel the channel to play, or {@link #ALL_CHANNELS}
+	 * @param speed how many times faster than received to play the frames,
+	 * or {@link #AS_FAST_AS_POSSIBLE}
+	 * @param capacity number of frames the queue can hold
+	 * @param waitStrategy how the consumer waits for frames
+	 * @param downstreamBuffers extra pool buffers for a consumer that holds on
+	 * to frames after taking them off the queue, such as a 
+	 * {@link org.rockhouse.jnoaaport.readnoaaport.ShardedReader}
+	 */
+	public CaptureReplaySource(Path path, int channel, double speed, int capacity, WaitStrategy waitStrategy, int downstreamBuffers) {
+		if (speed < 0) {
+			throw new IllegalArgumentException("Speed can't be negative: " + speed);
+		}
+		this.path = path;
+		this.channel = channel;
+		this.speed = speed;
+		sharedQueue = new SpscRingBuffer<PacketBuffer>(capacity, waitStrategy, OverflowPolicy.BLOCK);
+		packetPool = new PacketBufferPool(sharedQueue.capacity() + IN_FLIGHT_BUFFERS + downstreamBuffers, MAX_MSG, true);
+	}
+	
+	@Override
+	public void run() {
+		runner = Thread.currentThread();
+		CaptureReader reader = null;
+		try {
+			reader = new CaptureReader(path);
+			long firstTimestamp = -1;
+			long startNanos = 0;
+			while (!stopRequest) {
+				PacketBuffer packet = packetPool.acquire();
+				ByteBuffer frame = packet.getReceiveBuffer();
+				if (reader.next(frame) < 0) {
+					packet.release();
+					break;
+				}
+				if (channel != ALL_CHANNELS && reader.getChannel() != channel) {
+					packet.release();
+					continue;
+				}
+				packet.received(frame);
+				if (speed != AS_FAST_AS_POSSIBLE) {
+					if (firstTimestamp < 0) {
+						firstTimestamp = reader.getTimestamp();
+						startNanos = System.nanoTime();
+					}
+					long due = startNanos + (long) ((reader.getTimestamp() - firstTimestamp) * 1000 / speed);
+					waitUntil(due);
+				}
+				if (!sharedQueue.offer(packet)) {
+					// Only happens when stopping
+					packet.release();
+				} else {
+					frames++;
+				}
+			}
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Could not replay " + path, e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					LOG.log(Level.WARNING, "Could not close " + path, e);
+				}
+			}
+			finished = true;
+			LOG.info("Replayed " + frames + " frames from " + path);
+		}
+	}
+	
+	private void waitUntil(long due) {
+		long wait;
+		while (!stopRequest && (wait = due - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(Math.min(wait, MAX_PARK_NANOS));
+		}
+	}
+	
+	/**
+	 * Tells the thread to stop running, even if it is waiting for room on
+	 * the queue.
+	 */
+	@Override
+	public void requestStop() {
+		stopRequest = true;
+		Thread t = runner;
+		if (t != null) {
+			t.interrupt();
+		}
+	}
+	
+	@Override
+	public SpscRingBuffer<PacketBuffer> getQueue() {
+		return sharedQueue;
+	}
+	
+	/**
+	 * Tells whether the whole capture has been played, or playing stopped.
+	 * 
+	 * @return true once the thread is done
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	/**
+	 * Gets the number of frames put on the queue so far.
+	 * 
+	 * @return frame count
+	 */
+	public long getFrames() {
+		return frames;
+	}
+}
@@ -0,0 +1,348 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records raw SBN frames to a capture file so a feed can be replayed later
+ * through a {@link CaptureReplaySource}.  Receivers hand every frame to the
+ * writer as it arrives; frames are collected in large buffers which a 
+ * thread of the writer's own writes out, so the receive thread never waits
+ * on the disk.  When the disk falls so far behind that every buffer is 
+ * waiting to be written, frames are dropped and counted instead.
+ * 
+ * A capture file starts with an eight byte header, the magic number "SBNC"
+ * followed by a two byte version and two reserved bytes.  Each frame is 
+ * stored as a twelve byte record header, the time it was received in 
+ * microseconds since the epoch, the channel number and the frame length,
+ * followed by the frame itself.  Everything is big endian.  Files are only
+ * ever appended to, so a capture can be stopped and resumed into the same
+ * file.  A record cut short by a crash is trimmed off before appending.
+ * 
+ * A write failure stops the recording but never the receiver.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class CaptureWriter implements Closeable {
+	
+	private static final Logger LOG = Logger.getLogger(CaptureWriter.class.getName());
+	
+	/** "SBNC", the first four bytes of every capture file. */
+	public static final int MAGIC = 0x53424E43;
+	
+	/** The version of the capture format this writer produces. */
+	public static final short VERSION = 1;
+	
+	/** Bytes in the file header. */
+	public static final int FILE_HEADER_LENGTH = 8;
+	
+	/** Bytes in front of each frame. */
+	public static final int RECORD_HEADER_LENGTH = 12;
+	
+	private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+	
+	// One being filled while the rest wait for the disk
+	private static final int BUFFER_COUNT = 4;
+	
+	private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+	
+	private static final long STOP_CHECK_MILLIS = 100;
+	
+	private final Path path;
+	
+	private final FileChannel file;
+	
+	private final BlockingQueue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<ByteBuffer>(BUFFER_COUNT);
+	
+	private final BlockingQueue<ByteBuffer> fullBuffers = new ArrayBlockingQueue<ByteBuffer>(BUFFER_COUNT);
+	
+	private final Thread writer;
+	
+	private final int bufferSize;
+	
+	// Buffer frames are collected in, or null when every buffer is waiting to be written
+	private ByteBuffer buffer;
+	
+	// Receive times are taken from the monotonic clock and anchored to the wall clock once
+	private final long startMicros;
+	
+	private final long startNanos;
+	
+	private long frames;
+	
+	private long droppedFrames;
+	
+	// Set by closing; later frames are ignored
+	private boolean stopped = false;
+	
+	private volatile boolean closed = false;
+	
+	// Set by the writer thread when a write fails; later frames are ignored
+	private volatile IOException failure;
+	
+	/**
+	 * Opens a capture file for appending, creating it if needed.
+	 * 
+	 * @param path the capture file
+	 * @throws IOException if the file can't be opened or isn't a capture file
+	 */
+	public CaptureWriter(Path path) throws IOException {
+		this(path, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Opens a capture file for appending, creating it if needed, collecting
+	 * frames in buffers of the given size.
+	 * 
+	 * @param path the capture file
+	 * @param bufferSize bytes collected before they are written out
+	 * @throws IOException if the file can't be opened or isn't a capture file
+	 */
+	public CaptureWriter(Path path, int bufferSize) throws IOException {
+		this.path = path;
+		this.bufferSize = bufferSize;
+		for (int i = 0; i < BUFFER_COUNT; i++) {
+			freeBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+		}
+		buffer = freeBuffers.poll();
+		file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (file.size() == 0) {
+				buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+			} else {
+				// Make sure we aren't about to append to something else
+				CaptureReader.checkHeader(file, path);
+				long end = lastCompleteRecord(file);
+				if (end < file.size()) {
+					LOG.warning(path + " ends part way through a record, trimming " + (file.size() - end) + " bytes");
+					file.truncate(end);
+				}
+				file.position(end);
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		startMicros = System.currentTimeMillis() * 1000;
+		startNanos = System.nanoTime();
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "capture-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Records a frame.  The frame's buffer is left as it was, so it can be
+	 * a pooled buffer still on its way to a reader.
+	 * 
+	 * @param channel the NOAAPort channel the frame came from
+	 * @param frame buffer holding the frame, starting at index 0
+	 * @param length length of the frame
+	 */
+	public synchronized void write(int channel, ByteBuffer frame, int length) {
+		if (stopped || failure != null) {
+			return;
+		}
+		long micros = startMicros + (System.nanoTime() - startNanos) / 1000;
+		int needed = RECORD_HEADER_LENGTH + length;
+		if (needed > bufferSize) {
+			LOG.warning("Frame of " + length + " bytes doesn't fit the capture buffer, skipping it");
+			return;
+		}
+		if (buffer != null && buffer.remaining() < needed) {
+			// Never full, there are only as many buffers as it holds
+			fullBuffers.add(buffer);
+			buffer = null;
+		}
+		if (buffer == null) {
+			buffer = freeBuffers.poll();
+			if (buffer == null) {
+				droppedFrames++;
+				return;
+			}
+		}
+		buffer.putLong(micros).putShort((short) channel).putShort((short) length);
+		// Copied through a duplicate so the caller's position and limit stay put
+		ByteBuffer source = frame.duplicate();
+		source.limit(length).position(0);
+		buffer.put(source);
+		frames++;
+	}
+	
+	/**
+	 * Writes out any frames still being collected, waiting until they are
+	 * on disk.
+	 * 
+	 * @throws IOException if the write fails
+	 */
+	public synchronized void flush() throws IOException {
+		if (!stopped && buffer != null && buffer.position() > 0) {
+			fullBuffers.add(buffer);
+			buffer = null;
+		}
+		try {
+			synchronized (freeBuffers) {
+				while (freeBuffers.size() + (buffer == null ? 0 : 1) < BUFFER_COUNT) {
+					freeBuffers.wait(STOP_CHECK_MILLIS);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted flushing " + path, e);
+		}
+		if (buffer == null) {
+			buffer = freeBuffers.poll();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+	
+	/**
+	 * Writes out any frames still being collected and closes the file.
+	 * 
+	 * @throws IOException if the write fails
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			stopped = true;
+			closed = true;
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			file.close();
+			LOG.info("Recorded " + frames + " frames to " + path + ", dropped " + droppedFrames);
+		}
+	}
+	
+	/**
+	 * Gets the number of frames recorded.
+	 * 
+	 * @return frame count
+	 */
+	public synchronized long getFrames() {
+		return frames;
+	}
+	
+	/**
+	 * Gets the number of frames thrown away because the disk was behind.
+	 * 
+	 * @return dropped frame count
+	 */
+	public synchronized long getDroppedFrames() {
+		return droppedFrames;
+	}
+	
+	/**
+	 * Writes out full buffers and hands them back, until the writer is
+	 * closed.
+	 */
+	private void drain() {
+		try {
+			while (!closed || !fullBuffers.isEmpty()) {
+				ByteBuffer full = fullBuffers.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+				if (full == null) {
+					continue;
+				}
+				if (failure == null) {
+					try {
+						full.flip();
+						while (full.hasRemaining()) {
+							file.write(full);
+						}
+					} catch (IOException e) {
+						failure = e;
+						LOG.log(Level.SEVERE, "Could not write to " + path + ", recording stopped", e);
+					}
+				}
+				full.clear();
+				synchronized (freeBuffers) {
+					freeBuffers.add(full);
+					freeBuffers.notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Finds where the last complete record of a capture ends.  Only the 
+	 * record headers are read, each one saying how far it is to the next.
+	 * 
+	 * @param file the open capture file
+	 * @return offset just past the last complete record
+	 * @throws IOException if the file can't be read
+	 */
+	private static long lastCompleteRecord(FileChannel file) throws IOException {
+		long size = file.size();
+		long position = FILE_HEADER_LENGTH;
+		ByteBuffer scan = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		long scanStart = position;
+		scan.limit(0);
+		while (position + RECORD_HEADER_LENGTH <= size) {
+			int index = (int) (position - scanStart);
+			if (index + RECORD_HEADER_LENGTH > scan.limit()) {
+				scan.clear();
+				scanStart = position;
+				while (scan.hasRemaining() && file.read(scan, scanStart + scan.position()) > 0) {
+					// Keep reading until the buffer is full or the file ends
+				}
+				scan.flip();
+				index = 0;
+				if (scan.limit() < RECORD_HEADER_LENGTH) {
+					break;
+				}
+			}
+			int length = scan.getShort(index + 10) & 0xFFFF;
+			long next = position + RECORD_HEADER_LENGTH + length;
+			if (next > size) {
+				break;
+			}
+			position = next;
+		}
+		return position;
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.util.function.LongSupplier;
+
+import org.rockhouse.jnoaaport.metrics.MetricsRegistry;
+import org.rockhouse.jnoaaport.queue.SpscRingBuffer;
+
+/**
+ * Registers the gauges every receiver reports for a channel: how full its
+ * queue is, what the queue dropped and how often the packet pool ran dry.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+final class ChannelMetrics {
+	
+	private ChannelMetrics() {
+	}
+	
+	static void register(MetricsRegistry registry, String channel, final SpscRingBuffer<PacketBuffer> queue, final PacketBufferPool pool) {
+		registry.gauge("noaaport_packet_queue_depth", "Frames waiting for a reader", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return queue.size();
+			}
+		}, "channel", channel);
+		registry.gauge("noaaport_packet_queue_capacity", "Frames the reader queue can hold", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return queue.capacity();
+			}
+		}, "channel", channel);
+		registry.functionCounter("noaaport_packet_queue_dropped_total", "Frames dropped because the reader queue was full", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return queue.getDropped();
+			}
+		}, "channel", channel);
+		registry.functionCounter("noaaport_packet_pool_misses_total", "Frames received into a buffer from outside the pool", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return pool.getMisses();
+			}
+		}, "channel", channel);
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Reads a capture file made by a {@link CaptureWriter} through a memory
+ * mapping, for reprocessing large captures as fast as the disk allows.
+ * Frames are never copied; each one is left in place in the mapped buffer
+ * and described by an offset and a length, ready to be handed straight to
+ * the header parsers.
+ * 
+ * The file is mapped a window at a time, so captures of any size can be
+ * read.  A frame is only valid until the next call to {@link #next()}.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class MappedCaptureReader implements Closeable {
+	
+	private static final Logger LOG = Logger.getLogger(MappedCaptureReader.class.getName());
+	
+	// Large enough that remapping is rare, small enough to map on any 64 bit JVM
+	private static final long DEFAULT_WINDOW_SIZE = 1L << 30;
+	
+	private final Path path;
+	
+	private final FileChannel file;
+	
+	private final long fileSize;
+	
+	private final long windowSize;
+	
+	private MappedByteBuffer window;
+	
+	// Where the window starts in the file
+	private long windowStart;
+	
+	// Where the next record starts in the window
+	private int position;
+	
+	private long timestamp;
+	
+	private int channel;
+	
+	private int offset;
+	
+	private int length;
+	
+	/**
+	 * Opens a capture file.
+	 * 
+	 * @param path the capture file
+	 * @throws IOException if the file can't be opened or isn't a capture file
+	 */
+	public MappedCaptureReader(Path path) throws IOException {
+		this(path, DEFAULT_WINDOW_SIZE);
+	}
+	
+	/**
+	 * Opens a capture file, mapping it in windows of the given size.
+	 * 
+	 * @param path the capture file
+	 * @param windowSize bytes to map at once; at least the largest record
+	 * @throws IOException if the file can't be opened or isn't a capture file
+	 */
+	public MappedCaptureReader(Path path, long windowSize) throws IOException {
+		if (windowSize < CaptureWriter.RECORD_HEADER_LENGTH + 0xFFFF || windowSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Window can't hold every record: " + windowSize);
+		}
+		this.path = path;
+		this.windowSize = windowSize;
+		file = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			CaptureReader.checkHeader(file, path);
+			fileSize = file.size();
+			map(CaptureWriter.FILE_HEADER_LENGTH);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Moves on to the next frame.
+	 * 
+	 * @return false at the end of the capture
+	 * @throws IOException if the next part of the file can't be mapped
+	 */
+	public boolean next() throws IOException {
+		if (window.limit() - position < CaptureWriter.RECORD_HEADER_LENGTH && !remap(CaptureWriter.RECORD_HEADER_LENGTH)) {
+			return false;
+		}
+		int frameLength = window.getShort(position + 10) & 0xFFFF;
+		int recordLength = CaptureWriter.RECORD_HEADER_LENGTH + frameLength;
+		if (window.limit() - position < recordLength && !remap(recordLength)) {
+			LOG.warning(path + " ends part way through a frame");
+			return false;
+		}
+		timestamp = window.getLong(position);
+		channel = window.getShort(position + 8) & 0xFFFF;
+		offset = position + CaptureWriter.RECORD_HEADER_LENGTH;
+		length = frameLength;
+		position += recordLength;
+		return true;
+	}
+	
+	/**
+	 * Gets the buffer holding the current frame.  Use absolute gets; the 
+	 * buffer's position and limit are not meaningful.
+	 * 
+	 * @return the mapped window
+	 */
+	public MappedByteBuffer getBuffer() {
+		return window;
+	}
+	
+	/**
+	 * Gets where the current frame starts in the buffer.
+	 * 
+	 * @return index of the first byte of the frame
+	 */
+	public int getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * Gets the length of the current frame.
+	 * 
+	 * @return the frame length
+	 */
+	public int getLength() {
+		return length;
+	}
+	
+	/**
+	 * Gets when the current frame was received.
+	 * 
+	 * @return microseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * Gets the channel the current frame came from.
+	 * 
+	 * @return the NOAAPort channel number
+	 */
+	public int getChannel() {
+		return channel;
+	}
+	
+	/**
+	 * Closes the file.  The last window stays mapped until it is garbage
+	 * collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+	
+	/**
+	 * Maps a new window starting at the current record, if there is more of
+	 * the file to map.
+	 * 
+	 * @param needed bytes the current record needs
+	 * @return false if the file doesn't have that many bytes left
+	 * @throws IOException
+	 */
+	private boolean remap(int needed) throws IOException {
+		long recordStart = windowStart + position;
+		if (fileSize - recordStart < needed) {
+			return false;
+		}
+		map(recordStart);
+		return true;
+	}
+	
+	private void map(long start) throws IOException {
+		windowStart = start;
+		window = file.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, fileSize - start));
+		position = 0;
+	}
+}
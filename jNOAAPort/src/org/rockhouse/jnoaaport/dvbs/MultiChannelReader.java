@@ -0,0 +1,355 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rockhouse.jnoaaport.metrics.MetricsRegistry;
+import org.rockhouse.jnoaaport.queue.OverflowPolicy;
+import org.rockhouse.jnoaaport.queue.SpscRingBuffer;
+import org.rockhouse.jnoaaport.queue.WaitStrategy;
+
+
+/**
+ * Listens to several NOAAPort multicast channels from a single thread.  Each
+ * channel gets its own non-blocking {@link DatagramChannel}, registered with
+ * one {@link Selector}, and its own queue and packet pool so every channel
+ * can feed its own {@link org.rockhouse.jnoaaport.readnoaaport.NOAAPortReader}.
+ * 
+ * Packets are received into direct buffers just like the 
+ * {@link MulticastChannelReader}.  Since all channels share one thread, a
+ * queue using {@link OverflowPolicy#BLOCK} will stall every channel when its
+ * consumer falls behind; {@link OverflowPolicy#DROP} is the usual choice.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class MultiChannelReader implements Runnable {
+	
+	private static final Logger LOG = Logger.getLogger(MultiChannelReader.class.getName());
+	
+	/** The eight NOAAPort channels, 224.0.1.1 through 224.0.1.8. */
+	public static final String[] ALL_CHANNELS = { "224.0.1.1", "224.0.1.2", "224.0.1.3", "224.0.1.4",
+			"224.0.1.5", "224.0.1.6", "224.0.1.7", "224.0.1.8" };
+	
+	private static final int MAX_MSG = 10000;
+	
+	/**
+	 * Packets each channel's queue holds by default.  Every channel keeps a
+	 * direct buffer per queue slot, so eight channels take about 20 MB; the
+	 * socket's receive buffer rides out stalls longer than the queue.
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+	
+	private static final int DEFAULT_RECEIVE_BUFFER = 8 * 1024 * 1024;
+	
+	// Buffers that can be out of a queue at once: one being received, one being read
+	private static final int IN_FLIGHT_BUFFERS = 2;
+	
+	// How many packets to take from one channel before giving the others a turn
+	private static final int MAX_BATCH = 64;
+	
+	private ChannelState[] channels;
+	
+	private NetworkInterface ni;
+	
+	private volatile boolean stopRequest = false;
+	
+	private volatile Selector selector;
+	
+	private int receiveBufferSize = DEFAULT_RECEIVE_BUFFER;
+	
+	private CaptureWriter capture;
+
+	/**
+	 * Constructs a reader that will listen to all of the specified addresses
+	 * on the specified NIC.
+	 * 
+	 * @param addresses Multicast addresses to listen to
+	 * @param nic The address of the NIC to connect to
+	 * @throws UnknownHostException
+	 * @throws SocketException
+	 */
+	public MultiChannelReader(String[] addresses, String nic) throws UnknownHostException, SocketException {
+		this(addresses, nic, DEFAULT_QUEUE_CAPACITY, WaitStrategy.PARK, OverflowPolicy.DROP);
+	}
+	
+	/**
+	 * Constructs a reader that will listen to all of the specified addresses
+	 * on the specified NIC, handing each channel's packets off through its 
+	 * own queue of the given capacity.
+	 * 
+	 * @param addresses Multicast addresses to listen to
+	 * @param nic The address of the NIC to connect to
+	 * @param capacity number of packets each queue can hold
+	 * @param waitStrategy how the consumers wait for packets
+	 * @param overflowPolicy what to do with packets when a queue is full
+	 * @throws UnknownHostException
+	 * @throws SocketException
+	 */
+	public MultiChannelReader(String[] addresses, String nic, int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy) throws UnknownHostException, SocketException {
+		this(addresses, nic, capacity, waitStrategy, overflowPolicy, 0);
+	}
+	
+	/**
+	 * Constructs a reader that will listen to all of the specified addresses
+	 * on the specified NIC, handing each channel's packets off through its 
+	 * own queue of the given capacity.  Each channel's packet pool also
+	 * covers the buffers its consumer holds on to.
+	 * 
+	 * @param addresses Multicast addresses to listen to
+	 * @param nic The address of the NIC to connect to
+	 * @param capacity number of packets each queue can hold
+	 * @param waitStrategy how the consumers wait for packets
+	 * @param overflowPolicy what to do with packets when a queue is full
+	 * @param downstreamBuffers extra pool buffers, per channel, for a consumer
+	 * that holds on to packets after taking them off the queue, such as a 
+	 * {@link org.rockhouse.jnoaaport.readnoaaport.ShardedReader}
+	 * @throws UnknownHostException
+	 * @throws SocketException
+	 */
+	public MultiChannelReader(String[] addresses, String nic, int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy, int downstreamBuffers) throws UnknownHostException, SocketException {
+		ni = NetworkInterface.getByInetAddress(InetAddress.getByName(nic));
+		channels = new ChannelState[addresses.length];
+		for (int i = 0; i < addresses.length; i++) {
+			ChannelState state = new ChannelState();
+			state.multiAddress = (Inet4Address)Inet4Address.getByName(addresses[i]);
+			if(!state.multiAddress.isMulticastAddress()) {
+				LOG.warning(addresses[i] + " isn't a multicast address!");
+			}
+			state.channelNumber = MulticastReader.getChannel(addresses[i]);
+			state.portNumber = MulticastReader.getPort(addresses[i]);
+			state.queue = new SpscRingBuffer<PacketBuffer>(capacity, waitStrategy, overflowPolicy);
+			state.pool = new PacketBufferPool(state.queue.capacity() + IN_FLIGHT_BUFFERS + downstreamBuffers, MAX_MSG, true);
+			channels[i] = state;
+		}
+	}
+	
+	@Override
+	public void run() {
+		try {
+			selector = Selector.open();
+			for (ChannelState state : channels) {
+				state.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+				state.channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+				state.channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+				state.channel.bind(new InetSocketAddress(state.portNumber));
+				state.key = state.channel.join(state.multiAddress, ni);
+				state.channel.configureBlocking(false);
+				state.channel.register(selector, SelectionKey.OP_READ, state);
+				int actual = state.channel.getOption(StandardSocketOptions.SO_RCVBUF);
+				if (actual < receiveBufferSize) {
+					LOG.warning("Asked for a receive buffer of " + receiveBufferSize + " bytes on channel " + state.channelNumber + " but only got " + actual);
+				}
+			}
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Could not join the multicast groups", e);
+			close();
+			return;
+		}
+		while (!stopRequest) {
+			try {
+				selector.select();
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (key.isValid() && key.isReadable()) {
+						readChannel((ChannelState) key.attachment());
+					}
+				}
+			} catch (ClosedSelectorException e) {
+				stopRequest = true;
+			} catch (IOException e) {
+				LOG.log(Level.SEVERE, "Receive failed", e);
+				stopRequest = true;
+			}
+		}
+		for (ChannelState state : channels) {
+			LOG.info("Stopped listening to " + state.multiAddress.getHostAddress() + ".  Processed " + state.tracker.getTotalPackets() + " packets and missed " + state.tracker.getMissedPackets());
+		}
+		close();
+	}
+	
+	/**
+	 * Drains up to a batch of packets from one channel onto its queue.
+	 * 
+	 * @param state the channel that is ready to read
+	 * @throws IOException
+	 */
+	private void readChannel(ChannelState state) throws IOException {
+		for (int i = 0; i < MAX_BATCH; i++) {
+			if (state.spare == null) {
+				state.spare = state.pool.acquire();
+			}
+			PacketBuffer recv = state.spare;
+			ByteBuffer msg = recv.getReceiveBuffer();
+			if (state.channel.receive(msg) == null) {
+				// Nothing left; keep the buffer for next time
+				return;
+			}
+			state.spare = null;
+			recv.received(msg);
+			state.tracker.track(msg, recv.getLength());
+			if (capture != null) {
+				capture.write(state.channelNumber, msg, recv.getLength());
+			}
+			if (!state.queue.offer(recv)) {
+				// Dropped by the queue's overflow policy
+				recv.release();
+			}
+		}
+	}
+	
+	private void close() {
+		for (ChannelState state : channels) {
+			try {
+				if (state.key != null && state.key.isValid()) {
+					state.key.drop();
+				}
+				if (state.channel != null) {
+					state.channel.close();
+				}
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not close channel " + state.channelNumber, e);
+			}
+			if (state.spare != null) {
+				state.spare.release();
+				state.spare = null;
+			}
+		}
+		try {
+			if (selector != null) {
+				selector.close();
+			}
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Could not close the selector", e);
+		}
+	}
+	
+	/**
+	 * Tells the thread to stop running.
+	 */
+	public void requestStop() {
+		stopRequest = true;
+		Selector s = selector;
+		if (s != null) {
+			s.wakeup();
+		}
+	}
+	
+	/**
+	 * Gets the queue packets from the given channel are placed on.
+	 * 
+	 * @param channelNumber the NOAAPort channel, 1 through 8
+	 * @return the queue, or null if this reader isn't listening to the channel
+	 */
+	public SpscRingBuffer<PacketBuffer> getQueue(int channelNumber) {
+		for (ChannelState state : channels) {
+			if (state.channelNumber == channelNumber) {
+				return state.queue;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Gets the channel numbers this reader listens to.
+	 * 
+	 * @return the NOAAPort channel numbers
+	 */
+	public int[] getChannelNumbers() {
+		int[] numbers = new int[channels.length];
+		for (int i = 0; i < channels.length; i++) {
+			numbers[i] = channels[i].channelNumber;
+		}
+		return numbers;
+	}
+
+	/**
+	 * Overrides the size of each socket's receive buffer (SO_RCVBUF).  Must
+	 * be called before the thread is started.
+	 * 
+	 * @param size buffer size in bytes
+	 */
+	public void setReceiveBufferSize(int size) {
+		receiveBufferSize = size;
+	}
+	
+	/**
+	 * Records every frame received on every channel to a capture file.  Must be called before
+	 * the thread is started.
+	 * 
+	 * @param writer the capture to record to, or null to stop recording
+	 */
+	public void setCaptureWriter(CaptureWriter writer) {
+		capture = writer;
+	}
+	
+	/**
+	 * Counts each channel's packets, bytes, gaps and queue depth in a 
+	 * registry.  Call before the reader is started.
+	 * 
+	 * @param registry registry to report to
+	 */
+	public void registerMetrics(MetricsRegistry registry) {
+		for (ChannelState state : channels) {
+			String channel = String.valueOf(state.channelNumber);
+			state.tracker = new SequenceTracker(registry, channel);
+			ChannelMetrics.register(registry, channel, state.queue, state.pool);
+		}
+	}
+	
+	/**
+	 * Everything the reader keeps for one multicast channel.
+	 */
+	private static class ChannelState {
+		int channelNumber;
+		int portNumber;
+		Inet4Address multiAddress;
+		DatagramChannel channel;
+		MembershipKey key;
+		SpscRingBuffer<PacketBuffer> queue;
+		PacketBufferPool pool;
+		PacketBuffer spare;
+		SequenceTracker tracker = new SequenceTracker();
+	}
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rockhouse.jnoaaport.metrics.MetricsRegistry;
+import org.rockhouse.jnoaaport.queue.OverflowPolicy;
+import org.rockhouse.jnoaaport.queue.SpscRingBuffer;
+import org.rockhouse.jnoaaport.queue.WaitStrategy;
+
+
+/**
+ * An alternative to the {@link MulticastReader} built on a NIO 
+ * {@link DatagramChannel}.  Packets are received straight into direct
+ * buffers, which saves the copy from native memory the socket based reader
+ * has to do, and the socket's receive buffer can be made large enough to 
+ * ride out short stalls further down the chain.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class MulticastChannelReader implements PacketSource {
+	
+	private static final Logger LOG = Logger.getLogger(MulticastChannelReader.class.getName());
+	
+	private Inet4Address multiAddress;
+	
+	private SpscRingBuffer<PacketBuffer> sharedQueue;
+	
+	private PacketBufferPool packetPool;
+	
+	private volatile boolean stopRequest = false;
+	
+	private volatile DatagramChannel channel;
+	
+	private static final int MAX_MSG = 10000;
+	
+	private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+	
+	private static final int DEFAULT_RECEIVE_BUFFER = 8 * 1024 * 1024;
+	
+	// Buffers that can be out of the queue at once: one being received, one being read
+	private static final int IN_FLIGHT_BUFFERS = 2;
+	
+	private int receiveBufferSize = DEFAULT_RECEIVE_BUFFER;
+	
+	private NetworkInterface ni;
+	
+	int portNumber;
+	
+	private int channelNumber;
+	
+	private SequenceTracker tracker = new SequenceTracker();
+	
+	private CaptureWriter capture;
+
+	/**
+	 * Constructs a channel reader that will listen to the specified address
+	 * and only on the specified NIC.
+	 * 
+	 * @param address Multicast address to listen to
+	 * @param nic The address of the NIC to connect to
+	 * @throws UnknownHostException
+	 * @throws SocketException
+	 */
+	public MulticastChannelReader(String address, String nic) throws UnknownHostException, SocketException {
+		this(address, nic, DEFAULT_QUEUE_CAPACITY, WaitStrategy.PARK, OverflowPolicy.DROP);
+	}
+	
+	/**
+	 * Constructs a channel reader that will listen to the specified address
+	 * and only on the specified NIC, handing packets off through a queue of
+	 * the given capacity.
+	 * 
+	 * @param address Multicast address to listen to
+	 * @param nic The address of the NIC to connect to
+	 * @param capacity number of packets the queue can hold
+	 * @param waitStrategy how the consumer waits for packets
+	 * @param overflowPolicy what to do with packets when the queue is full
+	 * @throws UnknownHostException
+	 * @throws SocketException
+	 */
+	public MulticastChannelReader(String address, String nic, int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy) throws UnknownHostException, SocketException {
+		this(address, nic, capacity, waitStrategy, overflowPolicy, 0);
+	}
+	
+	/**
+	 * Constructs a channel reader that will listen to the specified address
+	 * and only on the specified NIC, handing packets off through a queue of
+	 * the given capacity.  The packet pool also covers
+	 * the buffers the consumer holds on to.
+	 * 
+	 * @param address Multicast address to listen to
+	 * @param nic The address of the NIC to connect to
+	 * @param capacity number of packets the queue can hold
+	 * @param waitStrategy how the consumer waits for packets
+	 * @param overflowPolicy what to do with packets when the queue is full
+	 * @param downstreamBuffers extra pool buffers for a consumer that holds on to
+	 * packets after taking them off the queue, such as a 
+	 * {@link org.rockhouse.jnoaaport.readnoaaport.ShardedReader}
+	 * @throws UnknownHostException
+	 * @throws SocketException
+	 */
+	public MulticastChannelReader(String address, String nic, int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy, int downstreamBuffers) throws UnknownHostException, SocketException {
+		multiAddress = (Inet4Address)Inet4Address.getByName(address);
+		ni = NetworkInterface.getByInetAddress(InetAddress.getByName(nic));
+		sharedQueue = new SpscRingBuffer<PacketBuffer>(capacity, waitStrategy, overflowPolicy);
+		packetPool = new PacketBufferPool(sharedQueue.capacity() + IN_FLIGHT_BUFFERS + downstreamBuffers, MAX_MSG, true);
+		if(!multiAddress.isMulticastAddress()) {
+			LOG.warning(address + " isn't a multicast address!");
+		}
+		portNumber = MulticastReader.getPort(address);
+		channelNumber = MulticastReader.getChannel(address);
+	}
+	
+	@Override
+	public void run() {
+		MembershipKey key = null;
+		try {
+			channel = DatagramChannel.open(StandardProtocolFamily.INET);
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+			channel.bind(new InetSocketAddress(portNumber));
+			key = channel.join(multiAddress, ni);
+			int actual = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+			if (actual < receiveBufferSize) {
+				LOG.warning("Asked for a receive buffer of " + receiveBufferSize + " bytes but only got " + actual);
+			}
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Could not join " + multiAddress.getHostAddress(), e);
+			return;
+		}
+		while (!stopRequest) {
+			PacketBuffer recv = packetPool.acquire();
+			try {
+				ByteBuffer msg = recv.getReceiveBuffer();
+				channel.receive(msg);
+				recv.received(msg);
+				tracker.track(msg, recv.getLength());
+				if (capture != null) {
+					capture.write(channelNumber, msg, recv.getLength());
+				}
+				if (!sharedQueue.offer(recv)) {
+					// Dropped by the queue's overflow policy
+					recv.release();
+				}
+			} catch (ClosedChannelException e) {
+				recv.release();
+				stopRequest = true;
+			} catch (IOException e) {
+				recv.release();
+				LOG.log(Level.SEVERE, "Receive failed on " + multiAddress.getHostAddress(), e);
+				stopRequest = true;
+			}
+		}
+		LOG.info("Stopped listening to " + multiAddress.getHostAddress() + ".  Processed " + tracker.getTotalPackets() + " packets and missed " + tracker.getMissedPackets());
+		try {
+			if (key != null && key.isValid()) {
+				key.drop();
+			}
+			channel.close();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Could not leave " + multiAddress.getHostAddress(), e);
+		}
+	}
+	
+	/**
+	 * Counts this reader's packets, bytes, gaps and queue depth in a 
+	 * registry.  Call before the reader is started.
+	 * 
+	 * @param registry registry to report to
+	 */
+	public void registerMetrics(MetricsRegistry registry) {
+		String channel = String.valueOf(channelNumber);
+		tracker = new SequenceTracker(registry, channel);
+		ChannelMetrics.register(registry, channel, sharedQueue, packetPool);
+	}
+	
+	/**
+	 * Records every frame received to a capture file.  Must be called before
+	 * the thread is started.
+	 * 
+	 * @param writer the capture to record to, or null to stop recording
+	 */
+	public void setCaptureWriter(CaptureWriter writer) {
+		capture = writer;
+	}
+	
+	/**
+	 * Tells the thread to stop running.  Closes the channel so a blocked
+	 * receive returns right away.
+	 */
+	@Override
+	public void requestStop() {
+		stopRequest = true;
+		DatagramChannel c = channel;
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not close the channel", e);
+			}
+		}
+	}
+
+	/**
+	 * Allows external threads to get the queue this object will store incoming
+	 * packets to.
+	 * 
+	 * @return the queue
+	 */
+	@Override
+	public SpscRingBuffer<PacketBuffer> getQueue(){
+		return sharedQueue;
+	}
+	
+	/**
+	 * Gets the pool incoming packets are received into.
+	 * 
+	 * @return the packet pool
+	 */
+	public PacketBufferPool getPacketPool(){
+		return packetPool;
+	}
+
+	/**
+	 * Overrides the size of the socket's receive buffer (SO_RCVBUF).  Must
+	 * be called before the thread is started.  The operating system may cap
+	 * the size; on Linux see net.core.rmem_max.
+	 * 
+	 * @param size buffer size in bytes
+	 */
+	public void setReceiveBufferSize(int size) {
+		receiveBufferSize = size;
+	}
+}
@@ -23,20 +23,27 @@
 package org.rockhouse.jnoaaport.dvbs;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rockhouse.jnoaaport.metrics.MetricsRegistry;
+import org.rockhouse.jnoaaport.queue.OverflowPolicy;
+import org.rockhouse.jnoaaport.queue.SpscRingBuffer;
+import org.rockhouse.jnoaaport.queue.WaitStrategy;
 
 
 /**
  * This simple class listens on a multicast address and puts any received
- * packets on a queue to be handled else where.  
+ * packets on a queue to be handled else where.  Packets are received into
+ * buffers taken from a {@link PacketBufferPool}; whoever takes a packet off
+ * the queue is responsible for releasing it back to the pool.  The queue is
+ * a bounded {@link SpscRingBuffer} so only one thread may consume from it.
  * 
  * This code is based on C code provided by Unidata and available online at 
  * the link below.
@@ -46,11 +53,15 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * @author Bryan Rockwood
  *
  */
-public class MulticastReader implements Runnable{
+public class MulticastReader implements PacketSource {
+	
+	private static final Logger LOG = Logger.getLogger(MulticastReader.class.getName());
 	
 	private Inet4Address multiAddress;
 	
-	private ConcurrentLinkedQueue<DatagramPacket> sharedQueue;
+	private SpscRingBuffer<PacketBuffer> sharedQueue;
+	
+	private PacketBufferPool packetPool;
 	
 	private volatile boolean stopRequest = false;
 	
@@ -58,11 +69,22 @@ public class MulticastReader implements Runnable{
 	
 	private static final int MAX_MSG = 10000;
 	
+	private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+	
+	// Buffers that can be out of the queue at once: one being received, one being read
+	private static final int IN_FLIGHT_BUFFERS = 2;
+	
 	private int socketTimeout = 0; // No timeout
 	
 	private NetworkInterface ni;
 	
 	int portNumber;
+	
+	private int channelNumber;
+	
+	private SequenceTracker tracker = new SequenceTracker();
+	
+	private CaptureWriter capture;
 
 	
 	/**
@@ -75,21 +97,80 @@ public class MulticastReader implements Runnable{
 	 * @throws SocketException
 	 */
 	public MulticastReader(String address, String nic) throws UnknownHostException, SocketException {
+		this(address, nic, DEFAULT_QUEUE_CAPACITY, WaitStrategy.PARK, OverflowPolicy.DROP);
+	}
+	
+	/**
+	 * Constructs a multicast reader that will listen to the specified address
+	 * and only on the specified NIC, handing packets off through a queue of
+	 * the given capacity.
+	 * 
+	 * @param address Multicast address to listen to
+	 * @param nic The address of the NIC to connect to
+	 * @param capacity number of packets the queue can hold
+	 * @param waitStrategy how the consumer waits for packets
+	 * @param overflowPolicy what to do with packets when the queue is full
+	 * @throws UnknownHostException
+	 * @throws SocketException
+	 */
+	public MulticastReader(String address, String nic, int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy) throws UnknownHostException, SocketException {
+		this(address, nic, capacity, waitStrategy, overflowPolicy, 0);
+	}
+	
+	/**
+	 * Constructs a multicast reader that will listen to the specified address
+	 * and only on the specified NIC, handing packets off through a queue of
+	 * the given capacity.  The packet pool also covers
+	 * the buffers the consumer holds on to.
+	 * 
+	 * @param address Multicast address to listen to
+	 * @param nic The address of the NIC to connect to
+	 * @param capacity number of packets the queue can hold
+	 * @param waitStrategy how the consumer waits for packets
+	 * @param overflowPolicy what to do with packets when the queue is full
+	 * @param downstreamBuffers extra pool buffers for a consumer that holds on to
+	 * packets after taking them off the queue, such as a 
+	 * {@link org.rockhouse.jnoaaport.readnoaaport.ShardedReader}
+	 * @throws UnknownHostException
+	 * @throws SocketException
+	 */
+	public MulticastReader(String address, String nic, int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy, int downstreamBuffers) throws UnknownHostException, SocketException {
 		multiAddress = (Inet4Address)Inet4Address.getByName(address);
 		ni = NetworkInterface.getByInetAddress(InetAddress.getByName(nic));
-		sharedQueue = new ConcurrentLinkedQueue<DatagramPacket>();
+		sharedQueue = new SpscRingBuffer<PacketBuffer>(capacity, waitStrategy, overflowPolicy);
+		packetPool = new PacketBufferPool(sharedQueue.capacity() + IN_FLIGHT_BUFFERS + downstreamBuffers, MAX_MSG);
 		if(!multiAddress.isMulticastAddress()) {
-			System.out.println("This isn't a multicast address!");
+			LOG.warning(address + " isn't a multicast address!");
 		}
+		portNumber = getPort(address);
+		channelNumber = getChannel(address);
+	}
+	
+	/**
+	 * Looks up the port a NOAAPort channel is broadcast on.  The channel is
+	 * the last octet of its multicast address.
+	 * 
+	 * @param address Multicast address of the channel
+	 * @return the port number
+	 */
+	static int getPort(String address) {
+		return s_port[getChannel(address) - 1];
+	}
+	
+	/**
+	 * Gets the NOAAPort channel number, 1 through 8, of a multicast address.
+	 * 
+	 * @param address Multicast address of the channel
+	 * @return the channel number
+	 */
+	static int getChannel(String address) {
 		int lastoctet = address.lastIndexOf(".") + 1;
-		int s_portnumber = Integer.parseInt(address.substring(lastoctet));
-		portNumber = s_port[s_portnumber - 1];
+		return Integer.parseInt(address.substring(lastoctet));
 	}
 	
 	@Override
 	public void run() {
 		MulticastSocket msocket = null;
-		int sbnnum, lastnum = 0, missedpackets = 0, totalpackets = 0;
 		try{
 			msocket = new MulticastSocket(portNumber);
 			msocket.setNetworkInterface(ni);
@@ -97,36 +178,56 @@ public class MulticastReader implements Runnable{
 			msocket.setReuseAddress(true);
 			msocket.setSoTimeout(socketTimeout);
 		} catch (IOException e){
-			e.printStackTrace();
+			LOG.log(Level.SEVERE, "Could not join " + multiAddress.getHostAddress(), e);
 		}
 		while (!stopRequest) {
+			PacketBuffer recv = packetPool.acquire();
 			try {
-				byte[] msg = new byte[MAX_MSG];
-				DatagramPacket recv = new DatagramPacket(msg, msg.length);
-				msocket.receive(recv);
-				sbnnum = (((((((msg[8] & 0xFF) << 8) + (msg[9] & 0xFF)) << 8) +  (msg[10] & 0xFF)) << 8) + (msg[11] & 0xFF));
-				int transfer = msg[17] & 0xFF;
-				if ((lastnum != 0) && (lastnum + 1 != sbnnum)) {
-					int n = recv.getLength();
-					System.out.println("Woops, missed one.  This packet appears to be: " + sbnnum + " while I last worked on: " + lastnum + " and received " + n + " with a transfer type of " + transfer);
-					missedpackets++;
+				msocket.receive(recv.getDatagramPacket());
+				recv.received();
+				tracker.track(recv.getBuffer(), recv.getLength());
+				if (capture != null) {
+					capture.write(channelNumber, recv.getBuffer(), recv.getLength());
+				}
+				if (!sharedQueue.offer(recv)) {
+					// Dropped by the queue's overflow policy
+					recv.release();
 				}
-				totalpackets++;
-				//System.out.println(sbnnum);
-				lastnum = sbnnum;
-				//System.out.println("Received a packet of size " + recv.getLength() + " " + sbnnum);
-				sharedQueue.add(recv);
 			} catch (IOException e) {
-				System.out.println("Timed out while waiting.  Processed " + totalpackets + " packets and missed " + missedpackets);
+				recv.release();
+				LOG.info("Timed out while waiting.  Processed " + tracker.getTotalPackets() + " packets and missed " + tracker.getMissedPackets());
 				stopRequest = true;
 			}
 		}
 	}
 	
+	/**
+	 * Counts this reader's packets, bytes, gaps and queue depth in a 
+	 * registry.  Call before the reader is started.
+	 * 
+	 * @param registry registry to report to
+	 */
+	public void registerMetrics(MetricsRegistry registry) {
+		String channel = String.valueOf(channelNumber);
+		tracker = new SequenceTracker(registry, channel);
+		ChannelMetrics.register(registry, channel, sharedQueue, packetPool);
+	}
+	
+	/**
+	 * Records every frame received to a capture file.  Must be called before
+	 * the thread is started.
+	 * 
+	 * @param writer the capture to record to, or null to stop recording
+	 */
+	public void setCaptureWriter(CaptureWriter writer) {
+		capture = writer;
+	}
+	
 	/**
 	 * Tells the thread to stop running.
 	 * 
 	 */
+	@Override
 	public void requestStop() {
 		stopRequest = true;
 	}
@@ -137,9 +238,19 @@ public class MulticastReader implements Runnable{
 	 * 
 	 * @return the queue
 	 */
-	public Queue<DatagramPacket> getQueue(){
+	@Override
+	public SpscRingBuffer<PacketBuffer> getQueue(){
 		return sharedQueue;
 	}
+	
+	/**
+	 * Gets the pool incoming packets are received into.
+	 * 
+	 * @return the packet pool
+	 */
+	public PacketBufferPool getPacketPool(){
+		return packetPool;
+	}
 
 	/**
 	 * Overides the default time.
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable receive buffer for a single SBN frame.  Buffers are handed out
+ * by a {@link PacketBufferPool}, filled by a reader and passed downstream.
+ * Once the consumer is done with the frame bytes it must call 
+ * {@link #release()} so the buffer can be used for another packet.
+ * 
+ * Buffers are either backed by a heap array, for use with a 
+ * {@link java.net.MulticastSocket}, or by direct memory, for use with a 
+ * {@link java.nio.channels.DatagramChannel}.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class PacketBuffer {
+	
+	private final ByteBuffer buffer;
+	
+	private final DatagramPacket datagram;
+	
+	private final PacketBufferPool pool;
+	
+	private int length;
+	
+	/**
+	 * Creates a buffer of the given size which belongs to the specified pool.
+	 * A buffer with no pool is simply dropped when it is released.
+	 * 
+	 * @param size maximum frame size in bytes
+	 * @param direct true to allocate the buffer outside of the heap
+	 * @param pool the owning pool, or null
+	 */
+	PacketBuffer(int size, boolean direct, PacketBufferPool pool) {
+		if (direct) {
+			buffer = ByteBuffer.allocateDirect(size);
+			datagram = null;
+		} else {
+			buffer = ByteBuffer.allocate(size);
+			datagram = new DatagramPacket(buffer.array(), size);
+		}
+		this.pool = pool;
+	}
+	
+	/**
+	 * Returns the buffer holding the frame.  The frame starts at index 0 and
+	 * is {@link #getLength()} bytes long.  Readers should use absolute
+	 * gets; the position and limit are not meaningful.
+	 * 
+	 * @return the frame bytes
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+	
+	/**
+	 * Returns the backing array of a heap buffer.  Only the first 
+	 * {@link #getLength()} bytes are valid.
+	 * 
+	 * @return the frame bytes
+	 * @throws UnsupportedOperationException if this is a direct buffer
+	 */
+	public byte[] getData() {
+		return buffer.array();
+	}
+	
+	/**
+	 * Returns the number of bytes received into the buffer.
+	 * 
+	 * @return the frame length
+	 */
+	public int getLength() {
+		return length;
+	}
+	
+	/**
+	 * Returns the buffer to its pool.  The buffer must not be touched after
+	 * this has been called.
+	 */
+	public void release() {
+		if (pool != null) {
+			pool.release(this);
+		}
+	}
+	
+	/**
+	 * Gets the packet to receive into, reset to the full size of the buffer.
+	 * Call {@link #received()} once the receive completes.
+	 * 
+	 * @return the datagram packet backed by this buffer
+	 */
+	DatagramPacket getDatagramPacket() {
+		datagram.setLength(buffer.capacity());
+		return datagram;
+	}
+	
+	/**
+	 * Records the length of a frame received through 
+	 * {@link #getDatagramPacket()}.  The buffer is cleared, just as
+	 * {@link #getReceiveBuffer()} does, so whatever was done to its position
+	 * and limit while it held an earlier frame doesn't carry over.
+	 */
+	void received() {
+		length = datagram.getLength();
+		buffer.clear();
+	}
+	
+	/**
+	 * Gets the buffer cleared and ready for a channel to receive into.  Call
+	 * {@link #received(ByteBuffer)} once the receive completes.
+	 * 
+	 * @return the cleared buffer
+	 */
+	ByteBuffer getReceiveBuffer() {
+		buffer.clear();
+		return buffer;
+	}
+	
+	/**
+	 * Records the length of a frame received through 
+	 * {@link #getReceiveBuffer()}.
+	 * 
+	 * @param received the buffer after the receive
+	 */
+	void received(ByteBuffer received) {
+		length = received.position();
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed pool of {@link PacketBuffer}s.  All buffers are allocated up front
+ * so a reader in its steady state does not create any garbage per packet.  If
+ * the consumer falls behind and the pool runs dry, a temporary buffer is 
+ * handed out instead and the miss is counted so the pool can be sized
+ * properly.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class PacketBufferPool {
+	
+	private final ArrayBlockingQueue<PacketBuffer> freeBuffers;
+	
+	private final int bufferSize;
+	
+	private final boolean direct;
+	
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a pool of heap buffers and allocates all of them.
+	 * 
+	 * @param count number of buffers in the pool
+	 * @param bufferSize size of each buffer in bytes
+	 */
+	public PacketBufferPool(int count, int bufferSize) {
+		this(count, bufferSize, false);
+	}
+	
+	/**
+	 * Creates a pool and allocates all of its buffers.
+	 * 
+	 * @param count number of buffers in the pool
+	 * @param bufferSize size of each buffer in bytes
+	 * @param direct true to allocate the buffers outside of the heap
+	 */
+	public PacketBufferPool(int count, int bufferSize, boolean direct) {
+		this.bufferSize = bufferSize;
+		this.direct = direct;
+		freeBuffers = new ArrayBlockingQueue<PacketBuffer>(count);
+		for (int i = 0; i < count; i++) {
+			freeBuffers.add(new PacketBuffer(bufferSize, direct, this));
+		}
+	}
+	
+	/**
+	 * Takes a buffer out of the pool.  Never returns null; when the pool is
+	 * empty a buffer that does not belong to the pool is created.
+	 * 
+	 * @return a buffer ready to receive into
+	 */
+	public PacketBuffer acquire() {
+		PacketBuffer buffer = freeBuffers.poll();
+		if (buffer == null) {
+			misses.incrementAndGet();
+			buffer = new PacketBuffer(bufferSize, direct, null);
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Puts a buffer back into the pool.
+	 * 
+	 * @param buffer the buffer being returned
+	 */
+	void release(PacketBuffer buffer) {
+		freeBuffers.offer(buffer);
+	}
+	
+	/**
+	 * Returns the number of buffers currently available.
+	 * 
+	 * @return free buffer count
+	 */
+	public int getAvailable() {
+		return freeBuffers.size();
+	}
+	
+	/**
+	 * Returns how many times the pool was empty when a buffer was requested.
+	 * 
+	 * @return miss count
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import org.rockhouse.jnoaaport.queue.SpscRingBuffer;
+
+/**
+ * Something that produces SBN frames for a {@link 
+ * org.rockhouse.jnoaaport.readnoaaport.NOAAPortReader} to consume.  Frames
+ * are placed on the source's queue and must be released by the consumer.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public interface PacketSource extends Runnable {
+	
+	/**
+	 * Gets the queue received frames are placed on.
+	 * 
+	 * @return the queue
+	 */
+	public SpscRingBuffer<PacketBuffer> getQueue();
+	
+	/**
+	 * Tells the source to stop producing frames.
+	 */
+	public void requestStop();
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the SBN frames carrying a {@link SyntheticProduct}: a frame level
+ * header with a valid checksum, a product definition header, a product
+ * specific header on the first block, and then the block itself.  Frames
+ * are numbered with consecutive SBN sequence numbers, as one channel's
+ * frames are on the satellite.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class SbnFrameBuilder {
+	
+	/** Length of the frame level header. */
+	public static final int FLH_LENGTH = 16;
+	
+	/** Length of the product definition header. */
+	public static final int PDH_LENGTH = 16;
+	
+	/** Length of the product specific header. */
+	public static final int PSH_LENGTH = 36;
+	
+	// Product format data transfer
+	private static final int COMMAND_DATA = 3;
+	
+	// Version 1 in the high nibble, length in 4 byte words in the low one
+	private static final int VERSION_AND_LENGTH = 0x14;
+	
+	private static final int TRANSFER_START = 1;
+	
+	private static final int TRANSFER_IN_PROGRESS = 2;
+	
+	private static final int TRANSFER_END = 4;
+	
+	private static final int TRANSFER_COMPRESSED = 16;
+	
+	private final int datastream;
+	
+	private long sbnSequence;
+	
+	/**
+	 * Creates a builder for the NWSTG datastream.
+	 */
+	public SbnFrameBuilder() {
+		this(5);
+	}
+	
+	/**
+	 * Creates a builder for a datastream.
+	 * 
+	 * @param datastream SBN datastream the frames belong to
+	 */
+	public SbnFrameBuilder(int datastream) {
+		this.datastream = datastream;
+		sbnSequence = 1;
+	}
+	
+	/**
+	 * Gets the length of the frame carrying a block.
+	 * 
+	 * @param product the product
+	 * @param block the block number
+	 * @return frame length in bytes
+	 */
+	public static int getFrameLength(SyntheticProduct product, int block) {
+		return FLH_LENGTH + PDH_LENGTH + (block == 0 ? PSH_LENGTH : 0) + product.getBlock(block).length;
+	}
+	
+	/**
+	 * Writes the frame carrying one block of a product at the start of a
+	 * buffer and moves on to the next SBN sequence number.  The buffer is
+	 * left positioned after the frame.
+	 * 
+	 * @param product the product
+	 * @param sequence product sequence number
+	 * @param block the block number
+	 * @param dst buffer to write the frame to
+	 * @return length of the frame
+	 */
+	public int build(SyntheticProduct product, int sequence, int block, ByteBuffer dst) {
+		byte[] data = product.getBlock(block);
+		int pshLength = block == 0 ? PSH_LENGTH : 0;
+		int length = FLH_LENGTH + PDH_LENGTH + pshLength + data.length;
+		for (int i = 0; i < FLH_LENGTH + PDH_LENGTH + pshLength; i++) {
+			dst.put(i, (byte) 0);
+		}
+		
+		dst.put(0, (byte) 255);
+		dst.put(2, (byte) VERSION_AND_LENGTH);
+		dst.put(4, (byte) COMMAND_DATA);
+		dst.put(5, (byte) datastream);
+		dst.putInt(8, (int) sbnSequence++);
+		int checksum = 0;
+		for (int i = 0; i < 14; i++) {
+			checksum += dst.get(i) & 0xFF;
+		}
+		dst.putShort(14, (short) checksum);
+		
+		int pdh = FLH_LENGTH;
+		int transfer = block == 0 ? TRANSFER_START : TRANSFER_IN_PROGRESS;
+		if (block == product.getBlockCount() - 1) {
+			transfer |= TRANSFER_END;
+		}
+		if (product.isCompressed()) {
+			transfer |= TRANSFER_COMPRESSED;
+		}
+		dst.put(pdh, (byte) VERSION_AND_LENGTH);
+		dst.put(pdh + 1, (byte) transfer);
+		dst.putShort(pdh + 2, (short) (PDH_LENGTH + pshLength));
+		dst.putShort(pdh + 4, (short) block);
+		dst.putShort(pdh + 8, (short) data.length);
+		dst.put(pdh + 10, (byte) 1);
+		dst.put(pdh + 11, (byte) 1);
+		dst.putInt(pdh + 12, sequence);
+		
+		if (pshLength > 0) {
+			int psh = pdh + PDH_LENGTH;
+			dst.put(psh, (byte) 1);
+			dst.putShort(psh + 2, (short) PSH_LENGTH);
+			dst.put(psh + 4, (byte) 1);
+			dst.put(psh + 10, (byte) product.getType());
+			dst.put(psh + 11, (byte) product.getCategory());
+			dst.putShort(psh + 12, (short) product.getCode());
+			dst.putShort(psh + 14, (short) product.getBlockCount());
+			dst.putInt(psh + 20, sequence);
+			int now = (int) (System.currentTimeMillis() / 1000);
+			dst.putInt(psh + 24, now);
+			dst.putInt(psh + 28, now);
+		}
+		
+		dst.clear();
+		dst.position(FLH_LENGTH + PDH_LENGTH + pshLength);
+		dst.put(data);
+		return length;
+	}
+	
+	/**
+	 * Gets the SBN sequence number the next frame will carry.
+	 * 
+	 * @return the sequence number
+	 */
+	public long getSbnSequence() {
+		return sbnSequence;
+	}
+	
+	/**
+	 * Skips SBN sequence numbers, as if frames had been lost on the way.
+	 * 
+	 * @param count numbers to skip
+	 */
+	public void skip(int count) {
+		sbnSequence += count;
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rockhouse.jnoaaport.log.RepeatedEvent;
+import org.rockhouse.jnoaaport.metrics.Counter;
+import org.rockhouse.jnoaaport.metrics.MetricsRegistry;
+
+/**
+ * Keeps track of the SBN sequence numbers seen on a single multicast 
+ * channel so receivers can report packets the network dropped before they
+ * ever reached us.  Packets, bytes and gaps are counted in a
+ * {@link MetricsRegistry} under the channel's number.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+class SequenceTracker {
+	
+	private long lastnum = 0;
+	
+	private final Counter missedpackets;
+	
+	private final Counter totalpackets;
+	
+	private final Counter totalbytes;
+	
+	private static final Logger LOG = Logger.getLogger(SequenceTracker.class.getName());
+	
+	// Shared by every channel, so a fade shows up as a handful of lines
+	private static final RepeatedEvent GAPS = new RepeatedEvent(LOG, Level.WARNING, "Missed SBN frames", 10000);
+	
+	/**
+	 * Creates a tracker whose counts are kept to itself.
+	 */
+	SequenceTracker() {
+		this(new MetricsRegistry(), "0");
+	}
+	
+	/**
+	 * Creates a tracker counting into a registry.
+	 * 
+	 * @param registry registry to count into
+	 * @param channel channel number the counts are labeled with
+	 */
+	SequenceTracker(MetricsRegistry registry, String channel) {
+		totalpackets = registry.counter("noaaport_packets_total", "SBN frames received", "channel", channel);
+		totalbytes = registry.counter("noaaport_bytes_total", "SBN frame bytes received", "channel", channel);
+		missedpackets = registry.counter("noaaport_sbn_gaps_total", "Breaks in the SBN sequence numbers", "channel", channel);
+	}
+	
+	/**
+	 * Checks the sequence number of a newly received frame against the
+	 * previous one.
+	 * 
+	 * @param msg buffer holding the frame
+	 * @param length length of the frame
+	 */
+	void track(ByteBuffer msg, int length) {
+		long sbnnum = msg.getInt(8) & 0xFFFFFFFFL;
+		if ((lastnum != 0) && (lastnum + 1 != sbnnum)) {
+			if (GAPS.occurred()) {
+				int transfer = msg.get(17) & 0xFF;
+				LOG.warning("Woops, missed one.  This packet appears to be: " + sbnnum + " while I last worked on: " + lastnum + " and received " + length + " with a transfer type of " + transfer);
+			}
+			missedpackets.inc();
+		}
+		totalpackets.inc();
+		totalbytes.add(length);
+		lastnum = sbnnum;
+	}
+	
+	long getTotalPackets() {
+		return totalpackets.get();
+	}
+	
+	long getMissedPackets() {
+		return missedpackets.get();
+	}
+}
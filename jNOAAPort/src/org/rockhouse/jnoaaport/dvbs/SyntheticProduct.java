@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * The data blocks of a made up product, ready to be framed by an
+ * {@link SbnFrameBuilder}.  The first block starts with a CCB and the WMO
+ * heading, as products on the SBN do.  Compressed products have each block
+ * deflated into a zlib stream of its own.
+ * 
+ * A product's blocks never change, so one product can be sent any number
+ * of times under different sequence numbers.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class SyntheticProduct {
+	
+	/** Length of the CCB put in front of every product. */
+	public static final int CCB_LENGTH = 24;
+	
+	// Leaves room for the headers and for data that grows when deflated
+	private static final int MAX_BLOCK_SIZE = 5000;
+	
+	private final String heading;
+	
+	private final int category;
+	
+	private final int type;
+	
+	private final int code;
+	
+	private final boolean compressed;
+	
+	private final byte[][] blocks;
+	
+	/**
+	 * Builds a product.
+	 * 
+	 * @param heading WMO heading, such as "SXUS21 KWOH 171200"
+	 * @param category product category from the PSH
+	 * @param type product type from the PSH
+	 * @param code product code from the PSH
+	 * @param body the product text following the heading
+	 * @param blockSize most bytes of the product carried by one block
+	 * @param compressed true to deflate each block
+	 */
+	public SyntheticProduct(String heading, int category, int type, int code, byte[] body, int blockSize, boolean compressed) {
+		if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE) {
+			throw new IllegalArgumentException("Block size must be between 1 and " + MAX_BLOCK_SIZE + ": " + blockSize);
+		}
+		this.heading = heading;
+		this.category = category;
+		this.type = type;
+		this.code = code;
+		this.compressed = compressed;
+		byte[] headingBytes = (heading + "\r\r\n").getBytes(StandardCharsets.US_ASCII);
+		byte[] data = new byte[CCB_LENGTH + headingBytes.length + body.length];
+		// Flag bits, then the CCB length in 2 byte words
+		data[0] = 0x40;
+		data[1] = CCB_LENGTH / 2;
+		System.arraycopy(headingBytes, 0, data, CCB_LENGTH, headingBytes.length);
+		System.arraycopy(body, 0, data, CCB_LENGTH + headingBytes.length, body.length);
+		int count = (data.length + blockSize - 1) / blockSize;
+		blocks = new byte[count][];
+		Deflater deflater = compressed ? new Deflater() : null;
+		try {
+			for (int i = 0; i < count; i++) {
+				int from = i * blockSize;
+				byte[] block = Arrays.copyOfRange(data, from, Math.min(from + blockSize, data.length));
+				blocks[i] = compressed ? deflate(deflater, block) : block;
+			}
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+	}
+	
+	private static byte[] deflate(Deflater deflater, byte[] block) {
+		deflater.reset();
+		deflater.setInput(block);
+		deflater.finish();
+		// Incompressible data grows by a few bytes per 16 KB
+		byte[] out = new byte[block.length + 64];
+		int length = deflater.deflate(out);
+		return Arrays.copyOf(out, length);
+	}
+	
+	public String getHeading() {
+		return heading;
+	}
+	
+	public int getCategory() {
+		return category;
+	}
+	
+	public int getType() {
+		return type;
+	}
+	
+	public int getCode() {
+		return code;
+	}
+	
+	public boolean isCompressed() {
+		return compressed;
+	}
+	
+	/**
+	 * Gets the number of blocks, and so frames, the product takes.
+	 * 
+	 * @return block count
+	 */
+	public int getBlockCount() {
+		return blocks.length;
+	}
+	
+	/**
+	 * Gets a block of the product.  The array must not be changed.
+	 * 
+	 * @param block the block number
+	 * @return the block's bytes
+	 */
+	byte[] getBlock(int block) {
+		return blocks[block];
+	}
+}
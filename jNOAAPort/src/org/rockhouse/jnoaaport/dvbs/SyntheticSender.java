@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Multicasts frames from a {@link SyntheticTraffic} generator on a 
+ * NOAAPort channel's address and port, so the whole pipeline, receivers
+ * included, can be load tested without a dish.  Frames are sent with a
+ * time to live of zero, so they never leave the machine.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class SyntheticSender implements Runnable {
+	
+	private static final Logger LOG = Logger.getLogger(SyntheticSender.class.getName());
+	
+	private static final int MAX_MSG = 10000;
+	
+	// Longest single wait, so a stop request is noticed at slow rates
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	
+	private final SyntheticTraffic traffic;
+	
+	private final InetSocketAddress group;
+	
+	private final NetworkInterface ni;
+	
+	private final double framesPerSecond;
+	
+	private final long frameLimit;
+	
+	private volatile boolean stopRequest = false;
+	
+	private volatile long frames;
+	
+	/**
+	 * Creates a sender for a NOAAPort channel.
+	 * 
+	 * @param traffic the generator to take frames from
+	 * @param address multicast address of the channel, such as 224.0.1.1
+	 * @param nic address of the NIC to send from, usually 127.0.0.1
+	 * @param framesPerSecond frames to send each second
+	 * @param frameLimit number of frames to send, or Long.MAX_VALUE
+	 * @throws UnknownHostException
+	 * @throws SocketException
+	 */
+	public SyntheticSender(SyntheticTraffic traffic, String address, String nic, double framesPerSecond, long frameLimit) throws UnknownHostException, SocketException {
+		if (framesPerSecond <= 0) {
+			throw new IllegalArgumentException("Rate must be positive: " + framesPerSecond);
+		}
+		this.traffic = traffic;
+		group = new InetSocketAddress((Inet4Address) Inet4Address.getByName(address), MulticastReader.getPort(address));
+		ni = NetworkInterface.getByInetAddress(InetAddress.getByName(nic));
+		this.framesPerSecond = framesPerSecond;
+		this.frameLimit = frameLimit;
+	}
+	
+	@Override
+	public void run() {
+		ByteBuffer frame = ByteBuffer.allocateDirect(MAX_MSG);
+		DatagramChannel channel = null;
+		try {
+			channel = DatagramChannel.open(StandardProtocolFamily.INET);
+			channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, ni);
+			channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+			channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 0);
+			long startNanos = System.nanoTime();
+			long sent = 0;
+			while (!stopRequest && sent < frameLimit) {
+				waitUntil(startNanos + (long) (sent * 1000000000L / framesPerSecond));
+				traffic.nextFrame(frame);
+				frame.flip();
+				channel.send(frame, group);
+				frames = ++sent;
+			}
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Could not send to " + group, e);
+		} finally {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					LOG.log(Level.WARNING, "Could not close the channel", e);
+				}
+			}
+		}
+		LOG.info("Sent " + frames + " frames for " + traffic.getProducts() + " products to " + group + "; lost " + traffic.getLost()
+				+ ", duplicated " + traffic.getDuplicated() + " and reordered " + traffic.getReordered());
+	}
+	
+	private void waitUntil(long due) {
+		long wait;
+		while (!stopRequest && (wait = due - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(Math.min(wait, MAX_PARK_NANOS));
+		}
+	}
+	
+	/**
+	 * Tells the thread to stop running.
+	 */
+	public void requestStop() {
+		stopRequest = true;
+	}
+	
+	/**
+	 * Gets the number of frames sent so far.
+	 * 
+	 * @return frame count
+	 */
+	public long getFrames() {
+		return frames;
+	}
+}
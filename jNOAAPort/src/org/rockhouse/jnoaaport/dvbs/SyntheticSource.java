@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import org.rockhouse.jnoaaport.queue.OverflowPolicy;
+import org.rockhouse.jnoaaport.queue.SpscRingBuffer;
+import org.rockhouse.jnoaaport.queue.WaitStrategy;
+
+/**
+ * Feeds frames from a {@link SyntheticTraffic} generator straight onto a
+ * queue, standing in for a receiver so the reassembly path can be load 
+ * tested in process.  Frames go out at a fixed rate, or as fast as the 
+ * reader takes them, until a frame limit is reached or the source is
+ * stopped.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class SyntheticSource implements PacketSource {
+	
+	private static final Logger LOG = Logger.getLogger(SyntheticSource.class.getName());
+	
+	/** Sends frames without waiting between them. */
+	public static final double AS_FAST_AS_POSSIBLE = 0;
+	
+	/** Sends frames until the source is stopped. */
+	public static final long UNLIMITED = Long.MAX_VALUE;
+	
+	private static final int MAX_MSG = 10000;
+	
+	private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+	
+	// Buffers that can be out of the queue at once: one being filled, one being read
+	private static final int IN_FLIGHT_BUFFERS = 2;
+	
+	// Longest single wait, so a stop request is noticed at slow rates
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	
+	private final SyntheticTraffic traffic;
+	
+	private final double framesPerSecond;
+	
+	private final long frameLimit;
+	
+	private SpscRingBuffer<PacketBuffer> sharedQueue;
+	
+	private PacketBufferPool packetPool;
+	
+	private volatile boolean stopRequest = false;
+	
+	private volatile boolean finished = false;
+	
+	private volatile Thread runner;
+	
+	private volatile long frames;
+	
+	/**
+	 * Creates a source sending frames as fast as they are taken.
+	 * 
+	 * @param traffic the generator to take frames from
+	 * @param frameLimit number of frames to send, or {@link #UNLIMITED}
+	 */
+	public SyntheticSource(SyntheticTraffic traffic, long frameLimit) {
+		this(traffic, AS_FAST_AS_POSSIBLE, frameLimit, DEFAULT_QUEUE_CAPACITY, WaitStrategy.PARK);
+	}
+	
+	/**
+	 * Creates a source sending frames at a fixed rate.
+	 * 
+	 * @param traffic the generator to take frames from
+	 * @param framesPerSecond frames to send each second, or 
+	 * {@link #AS_FAST_AS_POSSIBLE}
+	 * @param frameLimit number of frames to send, or {@link #UNLIMITED}
+	 * @param capacity number of frames the queue can hold
+	 * @param waitStrategy how the consumer waits for frames
+	 */
+	public SyntheticSource(SyntheticTraffic traffic, double framesPerSecond, long frameLimit, int capacity, WaitStrategy waitStrategy) {
+		this(traffic, framesPerSecond, frameLimit, capacity, waitStrategy, 0);
+	}
+	
+	/**
+	 * Creates a source sending frames at a fixed rate.  The packet pool also
+	 * covers the buffers the consumer holds on to.
+	 * 
+	 * @param traffic the generator to take frames from
+	 * @param framesPerSecond frames to send each second, or 
+	 * {@link #AS_FAST_AS_POSSIBLE}
+	 * @param frameLimit number of frames to send, or {@link #UNLIMITED}
+	 * @param capacity number of frames the queue can hold
+	 * @param waitStrategy how the consumer waits for frames
+	 * @param downstreamBuffers extra pool buffers for a consumer that holds on
+	 * to frames after taking them off the queue, such as a 
+	 * {@link org.rockhouse.jnoaaport.readnoaaport.ShardedReader}
+	 */
+	public SyntheticSource(SyntheticTraffic traffic, double framesPerSecond, long frameLimit, int capacity, WaitStrategy waitStrategy, int downstreamBuffers) {
+		if (framesPerSecond < 0) {
+			throw new IllegalArgumentException("Rate can't be negative: " + framesPerSecond);
+		}
+		this.traffic = traffic;
+		this.framesPerSecond = framesPerSecond;
+		this.frameLimit = frameLimit;
+		sharedQueue = new SpscRingBuffer<PacketBuffer>(capacity, waitStrategy, OverflowPolicy.BLOCK);
+		packetPool = new PacketBufferPool(sharedQueue.capacity() + IN_FLIGHT_BUFFERS + downstreamBuffers, MAX_MSG, true);
+	}
+	
+	@Override
+	public void run() {
+		runner = Thread.currentThread();
+		long startNanos = System.nanoTime();
+		long sent = 0;
+		while (!stopRequest && sent < frameLimit) {
+			if (framesPerSecond != AS_FAST_AS_POSSIBLE) {
+				waitUntil(startNanos + (long) (sent * 1000000000L / framesPerSecond));
+			}
+			PacketBuffer packet = packetPool.acquire();
+			ByteBuffer frame = packet.getReceiveBuffer();
+			traffic.nextFrame(frame);
+			packet.received(frame);
+			if (!sharedQueue.offer(packet)) {
+				// Only happens when stopping
+				packet.release();
+				break;
+			}
+			frames = ++sent;
+		}
+		finished = true;
+		LOG.info("Sent " + sent + " frames for " + traffic.getProducts() + " products; lost " + traffic.getLost()
+				+ ", duplicated " + traffic.getDuplicated() + " and reordered " + traffic.getReordered());
+	}
+	
+	private void waitUntil(long due) {
+		long wait;
+		while (!stopRequest && (wait = due - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(Math.min(wait, MAX_PARK_NANOS));
+		}
+	}
+	
+	/**
+	 * Tells the thread to stop running, even if it is waiting for room on
+	 * the queue.
+	 */
+	@Override
+	public void requestStop() {
+		stopRequest = true;
+		Thread t = runner;
+		if (t != null) {
+			t.interrupt();
+		}
+	}
+	
+	@Override
+	public SpscRingBuffer<PacketBuffer> getQueue() {
+		return sharedQueue;
+	}
+	
+	/**
+	 * Tells whether every frame has been sent, or sending stopped.
+	 * 
+	 * @return true once the thread is done
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+	
+	/**
+	 * Gets the number of frames put on the queue so far.
+	 * 
+	 * @return frame count
+	 */
+	public long getFrames() {
+		return frames;
+	}
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.dvbs;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Makes up a stream of SBN frames for load and soak testing.  Products are
+ * picked at random from a mix of product kinds, each kind given a weight,
+ * and sent one after another, block by block.  The stream can be impaired
+ * the way a weak signal would: frames lost, delivered twice, or swapped 
+ * with the frame after them.
+ * 
+ * Product bodies are made once, when a kind is added, so making frames is
+ * cheap enough to outrun the reader.  A seed makes the stream repeatable.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class SyntheticTraffic {
+	
+	// Different bodies made for each kind of product
+	private static final int VARIANTS = 8;
+	
+	private static final int DEFAULT_BLOCK_SIZE = 4000;
+	
+	private static final int MAX_FRAME = 10000;
+	
+	private final Random random;
+	
+	private final SbnFrameBuilder builder;
+	
+	private final List<SyntheticProduct[]> kinds = new ArrayList<SyntheticProduct[]>();
+	
+	private final List<Integer> weights = new ArrayList<Integer>();
+	
+	private int totalWeight;
+	
+	private double lossRate, duplicateRate, reorderRate;
+	
+	private SyntheticProduct product;
+	
+	private int productSequence;
+	
+	private int block;
+	
+	// A frame waiting to go out again, or after the one following it
+	private final ByteBuffer held = ByteBuffer.allocate(MAX_FRAME);
+	
+	private int heldLength;
+	
+	private boolean heldAfterNext;
+	
+	private long frames, products, lost, duplicated, reordered;
+	
+	/**
+	 * Creates a generator with a random seed on the NWSTG datastream.
+	 */
+	public SyntheticTraffic() {
+		this(new Random().nextLong(), 5);
+	}
+	
+	/**
+	 * Creates a generator.
+	 * 
+	 * @param seed seed for every random choice the generator makes
+	 * @param datastream SBN datastream the frames belong to
+	 */
+	public SyntheticTraffic(long seed, int datastream) {
+		random = new Random(seed);
+		builder = new SbnFrameBuilder(datastream);
+	}
+	
+	/**
+	 * Adds a kind of product to the mix.  The WMO heading's day and time are
+	 * filled in from the template, which may also use # for a random digit
+	 * and @ for a random letter, so "SXUS## K@@@" becomes a spread of
+	 * headings.
+	 * 
+	 * @param headingTemplate the first 11 characters of the WMO heading
+	 * @param category product category from the PSH
+	 * @param minSize smallest product body in bytes
+	 * @param maxSize largest product body in bytes
+	 * @param compressed true to deflate the product's blocks
+	 * @param weight how often this kind is picked compared to the others
+	 */
+	public void addProduct(String headingTemplate, int category, int minSize, int maxSize, boolean compressed, int weight) {
+		if (minSize < 0 || maxSize < minSize) {
+			throw new IllegalArgumentException("Bad size range: " + minSize + " to " + maxSize);
+		}
+		if (weight < 1) {
+			throw new IllegalArgumentException("Weight must be positive: " + weight);
+		}
+		SyntheticProduct[] variants = new SyntheticProduct[VARIANTS];
+		for (int i = 0; i < VARIANTS; i++) {
+			String heading = fill(headingTemplate) + String.format(" %02d%02d%02d", 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60));
+			int size = minSize + random.nextInt(maxSize - minSize + 1);
+			variants[i] = new SyntheticProduct(heading, category, 0, 0, body(size, compressed), DEFAULT_BLOCK_SIZE, compressed);
+		}
+		kinds.add(variants);
+		weights.add(weight);
+		totalWeight += weight;
+	}
+	
+	/**
+	 * Adds a mix resembling the NWSTG datastream: mostly short text
+	 * bulletins, some longer forecasts and a few large compressed products.
+	 */
+	public void addDefaultMix() {
+		addProduct("SXUS## K@@@", 1, 100, 2000, false, 60);
+		addProduct("FXUS6# K@@@", 1, 2000, 20000, false, 30);
+		addProduct("YEI### K@@@", 4, 20000, 200000, true, 10);
+	}
+	
+	/**
+	 * Sets the fraction of frames thrown away.  Some frames have to get
+	 * through, so the rate has to be below 1.
+	 * 
+	 * @param rate 0 up to but not including 1
+	 */
+	public void setLossRate(double rate) {
+		if (rate >= 1) {
+			throw new IllegalArgumentException("Loss rate must be below 1: " + rate);
+		}
+		lossRate = checkRate(rate);
+	}
+	
+	/**
+	 * Sets the fraction of frames sent twice.
+	 * 
+	 * @param rate 0 to 1
+	 */
+	public void setDuplicateRate(double rate) {
+		duplicateRate = checkRate(rate);
+	}
+	
+	/**
+	 * Sets the fraction of frames sent after the frame that follows them.
+	 * 
+	 * @param rate 0 to 1
+	 */
+	public void setReorderRate(double rate) {
+		reorderRate = checkRate(rate);
+	}
+	
+	/**
+	 * Writes the next frame of the stream at the start of a buffer, leaving
+	 * the buffer positioned after the frame.
+	 * 
+	 * @param dst buffer to write to, with room for 10000 bytes
+	 * @return length of the frame
+	 */
+	public int nextFrame(ByteBuffer dst) {
+		if (heldLength > 0 && !heldAfterNext) {
+			return release(dst);
+		}
+		int length;
+		while (true) {
+			length = build(dst);
+			if (lossRate > 0 && random.nextDouble() < lossRate) {
+				lost++;
+				continue;
+			}
+			break;
+		}
+		if (heldLength > 0) {
+			// The held frame goes out right after this one
+			heldAfterNext = false;
+		} else if (reorderRate > 0 && random.nextDouble() < reorderRate) {
+			hold(dst, length, true);
+			reordered++;
+			return nextFrame(dst);
+		} else if (duplicateRate > 0 && random.nextDouble() < duplicateRate) {
+			hold(dst, length, false);
+			duplicated++;
+		}
+		frames++;
+		return length;
+	}
+	
+	private int build(ByteBuffer dst) {
+		if (product == null) {
+			if (kinds.isEmpty()) {
+				addDefaultMix();
+			}
+			product = pick();
+			productSequence++;
+			block = 0;
+			products++;
+		}
+		int length = builder.build(product, productSequence, block, dst);
+		if (++block == product.getBlockCount()) {
+			product = null;
+		}
+		return length;
+	}
+	
+	private SyntheticProduct pick() {
+		int choice = random.nextInt(totalWeight);
+		for (int i = 0; i < kinds.size(); i++) {
+			choice -= weights.get(i);
+			if (choice < 0) {
+				SyntheticProduct[] variants = kinds.get(i);
+				return variants[random.nextInt(variants.length)];
+			}
+		}
+		throw new IllegalStateException("Weights don't add up");
+	}
+	
+	private void hold(ByteBuffer frame, int length, boolean afterNext) {
+		for (int i = 0; i < length; i++) {
+			held.put(i, frame.get(i));
+		}
+		heldLength = length;
+		heldAfterNext = afterNext;
+	}
+	
+	private int release(ByteBuffer dst) {
+		int length = heldLength;
+		dst.clear();
+		dst.put(held.array(), 0, length);
+		heldLength = 0;
+		frames++;
+		return length;
+	}
+	
+	private String fill(String template) {
+		char[] chars = template.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			if (chars[i] == '#') {
+				chars[i] = (char) ('0' + random.nextInt(10));
+			} else if (chars[i] == '@') {
+				chars[i] = (char) ('A' + random.nextInt(26));
+			}
+		}
+		return new String(chars);
+	}
+	
+	/**
+	 * Makes a product body.  Text products get lines of letters and spaces; compressed
+	 * products get bytes about as compressible as imagery.
+	 */
+	private byte[] body(int size, boolean compressed) {
+		byte[] body = new byte[size];
+		if (compressed) {
+			for (int i = 0; i < size; i++) {
+				body[i] = (byte) (random.nextInt(16) * (i % 7 == 0 ? 16 : 1));
+			}
+			return body;
+		}
+		byte[] words = "THE NATIONAL WEATHER SERVICE HAS ISSUED A FORECAST FOR RAIN AND WIND ".getBytes(StandardCharsets.US_ASCII);
+		for (int i = 0; i < size; i++) {
+			body[i] = (i % 69 == 68) ? (byte) '\n' : words[random.nextInt(words.length)];
+		}
+		return body;
+	}
+	
+	private static double checkRate(double rate) {
+		if (rate < 0 || rate > 1) {
+			throw new IllegalArgumentException("Rate must be between 0 and 1: " + rate);
+		}
+		return rate;
+	}
+	
+	/**
+	 * Gets the number of frames handed out, duplicates included.
+	 * 
+	 * @return frame count
+	 */
+	public long getFrames() {
+		return frames;
+	}
+	
+	/**
+	 * Gets the number of products started.
+	 * 
+	 * @return product count
+	 */
+	public long getProducts() {
+		return products;
+	}
+	
+	/**
+	 * Gets the number of frames built but never handed out.
+	 * 
+	 * @return lost frame count
+	 */
+	public long getLost() {
+		return lost;
+	}
+	
+	/**
+	 * Gets the number of frames handed out a second time.
+	 * 
+	 * @return duplicated frame count
+	 */
+	public long getDuplicated() {
+		return duplicated;
+	}
+	
+	/**
+	 * Gets the number of frames held back until after the next one.
+	 * 
+	 * @return reordered frame count
+	 */
+	public long getReordered() {
+		return reordered;
+	}
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * A logging handler that hands records to another handler on a background
+ * thread, so the thread doing the logging never waits on a console or a
+ * disk.  Records are queued in a bounded queue; when it is full they are 
+ * dropped and counted instead of holding up the caller.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class AsyncHandler extends Handler {
+	
+	public static final int DEFAULT_CAPACITY = 8192;
+	
+	private static final long STOP_CHECK_MILLIS = 100;
+	
+	private final Handler target;
+	
+	private final ArrayBlockingQueue<LogRecord> queue;
+	
+	private final AtomicLong dropped = new AtomicLong();
+	
+	private final Thread writer;
+	
+	private volatile boolean closed = false;
+	
+	/**
+	 * Creates a handler feeding the target with the default queue size.
+	 * 
+	 * @param target handler that does the actual writing
+	 */
+	public AsyncHandler(Handler target) {
+		this(target, DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * Creates a handler feeding the target.
+	 * 
+	 * @param target handler that does the actual writing
+	 * @param capacity number of records that can wait to be written
+	 */
+	public AsyncHandler(Handler target, int capacity) {
+		this.target = target;
+		queue = new ArrayBlockingQueue<LogRecord>(capacity);
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "log-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void publish(LogRecord record) {
+		if (closed || !isLoggable(record)) {
+			return;
+		}
+		if (!queue.offer(record)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void flush() {
+		target.flush();
+	}
+
+	/**
+	 * Writes out whatever is still queued and closes the target.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		target.close();
+	}
+	
+	/**
+	 * Gets the number of records thrown away because the queue was full.
+	 * 
+	 * @return dropped record count
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	private void drain() {
+		long reportedDrops = 0;
+		try {
+			while (!closed || !queue.isEmpty()) {
+				LogRecord record = queue.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+				if (record == null) {
+					continue;
+				}
+				target.publish(record);
+				if (queue.isEmpty()) {
+					long drops = dropped.get();
+					if (drops != reportedDrops) {
+						target.publish(new LogRecord(Level.WARNING, "Dropped " + (drops - reportedDrops) + " log records"));
+						reportedDrops = drops;
+					}
+					target.flush();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		target.flush();
+	}
+}
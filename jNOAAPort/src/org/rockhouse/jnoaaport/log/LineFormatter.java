@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.log;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * Formats a log record as a single line of space separated fields: the
+ * time, level, thread id, logger and message.  A stack trace, if any,
+ * follows on the lines after.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class LineFormatter extends Formatter {
+	
+	// Only ever used from the one thread writing the log
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+	
+	private final Date date = new Date();
+
+	// getLongThreadID() replaces getThreadID() only from Java 16 on
+	@SuppressWarnings("deprecation")
+	@Override
+	public synchronized String format(LogRecord record) {
+		date.setTime(record.getMillis());
+		StringBuilder line = new StringBuilder(128);
+		line.append(dateFormat.format(date))
+			.append(' ').append(record.getLevel().getName())
+			.append(" thread=").append(record.getThreadID())
+			.append(' ').append(record.getLoggerName())
+			.append(": ").append(formatMessage(record))
+			.append(System.lineSeparator());
+		if (record.getThrown() != null) {
+			StringWriter trace = new StringWriter();
+			record.getThrown().printStackTrace(new PrintWriter(trace));
+			line.append(trace);
+		}
+		return line.toString();
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.log;
+
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.StreamHandler;
+
+/**
+ * Sets up logging for an ingest application.  Every class logs through an
+ * ordinary {@link java.util.logging.Logger} named after it, so any 
+ * java.util.logging handler can be plugged in; this just provides a sensible
+ * default of one-line records written to standard out off the ingest
+ * threads.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class Logging {
+	
+	private Logging() {
+	}
+	
+	/**
+	 * Replaces the root logger's handlers with an {@link AsyncHandler}
+	 * writing to standard out.
+	 * 
+	 * @param level lowest level to log
+	 * @return the installed handler
+	 */
+	public static AsyncHandler install(Level level) {
+		StreamHandler console = new StreamHandler(System.out, new LineFormatter());
+		console.setLevel(Level.ALL);
+		return install(level, console);
+	}
+	
+	/**
+	 * Replaces the root logger's handlers with an {@link AsyncHandler}
+	 * feeding the given handler.
+	 * 
+	 * @param level lowest level to log
+	 * @param target handler that does the actual writing
+	 * @return the installed handler
+	 */
+	public static AsyncHandler install(Level level, Handler target) {
+		Logger root = Logger.getLogger("");
+		for (Handler handler : root.getHandlers()) {
+			root.removeHandler(handler);
+			handler.close();
+		}
+		final AsyncHandler async = new AsyncHandler(target);
+		async.setLevel(level);
+		root.addHandler(async);
+		root.setLevel(level);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				async.close();
+			}
+		}, "log-shutdown"));
+		return async;
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps an event that can happen thousands of times a second, like an SBN
+ * gap or a bad checksum, from flooding the log.  The first occurrence in 
+ * each interval is let through; the rest are counted and summed up in one
+ * line when the next interval starts.
+ * 
+ * <pre>
+ * if (gaps.occurred()) {
+ *     LOG.info("Gap in SBN sequence number " + last + " to " + current);
+ * }
+ * </pre>
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class RepeatedEvent {
+	
+	private final Logger logger;
+	
+	private final Level level;
+	
+	private final String description;
+	
+	private final long intervalMillis;
+	
+	private final AtomicLong windowStart = new AtomicLong(Long.MIN_VALUE / 2);
+	
+	private final AtomicLong suppressed = new AtomicLong();
+	
+	private final AtomicLong total = new AtomicLong();
+	
+	/**
+	 * Creates an event.
+	 * 
+	 * @param logger logger to write to
+	 * @param level level of the event's messages
+	 * @param description what happened, for the summary line
+	 * @param intervalMillis shortest time between logged occurrences
+	 */
+	public RepeatedEvent(Logger logger, Level level, String description, long intervalMillis) {
+		this.logger = logger;
+		this.level = level;
+		this.description = description;
+		this.intervalMillis = intervalMillis;
+	}
+	
+	/**
+	 * Records an occurrence of the event.
+	 * 
+	 * @return true if the caller should log the details of this occurrence
+	 */
+	public boolean occurred() {
+		total.incrementAndGet();
+		if (!logger.isLoggable(level)) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		long start = windowStart.get();
+		if (now - start >= intervalMillis && windowStart.compareAndSet(start, now)) {
+			long missed = suppressed.getAndSet(0);
+			if (missed > 0) {
+				logger.log(level, description + " " + missed + " more times in the last " + (now - start) + " ms");
+			}
+			return true;
+		}
+		suppressed.incrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * Gets the number of times the event has happened, logged or not.
+	 * 
+	 * @return occurrence count
+	 */
+	public long getCount() {
+		return total.get();
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up.  Counting never blocks, and several threads
+ * can count at once without fighting over a single memory location.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class Counter extends Metric {
+	
+	private final LongAdder count = new LongAdder();
+	
+	/**
+	 * Creates a counter.  Counters are normally made by a
+	 * {@link MetricsRegistry}.
+	 * 
+	 * @param name name of the counter
+	 * @param help one line description of the counter
+	 * @param labels label names and values, alternating
+	 */
+	public Counter(String name, String help, String... labels) {
+		super(name, help, labels);
+	}
+	
+	public void inc() {
+		count.increment();
+	}
+	
+	public void add(long amount) {
+		count.add(amount);
+	}
+	
+	public long get() {
+		return count.sum();
+	}
+
+	@Override
+	public String getType() {
+		return "counter";
+	}
+}
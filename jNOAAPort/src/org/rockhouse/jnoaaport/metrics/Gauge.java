@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value that is read from its source when it is exported, such as the 
+ * depth of a queue.  Counts that are already kept elsewhere can be exported
+ * the same way and reported as counters.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class Gauge extends Metric {
+	
+	private final LongSupplier value;
+	
+	private final String type;
+	
+	/**
+	 * Creates a gauge.  Gauges are normally made by a 
+	 * {@link MetricsRegistry}.
+	 * 
+	 * @param name name of the gauge
+	 * @param help one line description of the gauge
+	 * @param value where to read the value from
+	 * @param monotonic true if the value only goes up and should be reported 
+	 * as a counter
+	 * @param labels label names and values, alternating
+	 */
+	public Gauge(String name, String help, LongSupplier value, boolean monotonic, String... labels) {
+		super(name, help, labels);
+		this.value = value;
+		this.type = monotonic ? "counter" : "gauge";
+	}
+	
+	public long get() {
+		return value.getAsLong();
+	}
+
+	@Override
+	public String getType() {
+		return type;
+	}
+}
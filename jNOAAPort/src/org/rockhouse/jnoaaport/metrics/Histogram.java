@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts values into a fixed set of buckets, for things like how long
+ * products take to arrive.  Each bucket counts the values less than or equal
+ * to its upper bound and greater than the bound before it; a last bucket
+ * takes everything larger.  Recording is lock free.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class Histogram extends Metric {
+	
+	/** Bucket bounds suited to latencies in milliseconds, up to a minute. */
+	public static final long[] LATENCY_MILLIS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+	
+	private final long[] bounds;
+	
+	private final AtomicLongArray buckets;
+	
+	private final LongAdder sum = new LongAdder();
+	
+	/**
+	 * Creates a histogram.  Histograms are normally made by a
+	 * {@link MetricsRegistry}.
+	 * 
+	 * @param name name of the histogram
+	 * @param help one line description of the histogram
+	 * @param bounds upper bounds of the buckets, in increasing order
+	 * @param labels label names and values, alternating
+	 */
+	public Histogram(String name, String help, long[] bounds, String... labels) {
+		super(name, help, labels);
+		for (int i = 1; i < bounds.length; i++) {
+			if (bounds[i] <= bounds[i - 1]) {
+				throw new IllegalArgumentException("Bucket bounds must increase: " + name);
+			}
+		}
+		this.bounds = bounds.clone();
+		buckets = new AtomicLongArray(bounds.length + 1);
+	}
+	
+	/**
+	 * Records a value.
+	 * 
+	 * @param value the value
+	 */
+	public void record(long value) {
+		int bucket = 0;
+		while (bucket < bounds.length && value > bounds[bucket]) {
+			bucket++;
+		}
+		buckets.incrementAndGet(bucket);
+		sum.add(value);
+	}
+	
+	/**
+	 * Gets the number of buckets, including the one for values past the
+	 * last bound.
+	 * 
+	 * @return bucket count
+	 */
+	public int getBucketCount() {
+		return buckets.length();
+	}
+	
+	/**
+	 * Gets the upper bound of a bucket.
+	 * 
+	 * @param bucket the bucket
+	 * @return the bound, or Long.MAX_VALUE for the last bucket
+	 */
+	public long getBound(int bucket) {
+		return bucket < bounds.length ? bounds[bucket] : Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Gets the number of values recorded in a single bucket.
+	 * 
+	 * @param bucket the bucket
+	 * @return value count
+	 */
+	public long getBucket(int bucket) {
+		return buckets.get(bucket);
+	}
+	
+	/**
+	 * Gets the number of values recorded.
+	 * 
+	 * @return value count
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			count += buckets.get(i);
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets the total of the values recorded.
+	 * 
+	 * @return value total
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	@Override
+	public String getType() {
+		return "histogram";
+	}
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Publishes the metrics in a {@link MetricsRegistry} as JMX MBeans, one per
+ * metric, so they can be watched from JConsole or any JMX based monitoring.
+ * Each MBean is named after its metric, with the metric's labels as extra
+ * keys, under the org.rockhouse.jnoaaport domain.  Counters and gauges have
+ * a single Value attribute; histograms have Count, Sum, Bounds and the
+ * cumulative Buckets.
+ * 
+ * Metrics added to the registry later show up the next time 
+ * {@link #register()} is called.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class JmxExporter {
+	
+	private static final Logger LOG = Logger.getLogger(JmxExporter.class.getName());
+	
+	/** The domain every MBean is registered under. */
+	public static final String DOMAIN = "org.rockhouse.jnoaaport";
+	
+	private final MetricsRegistry registry;
+	
+	private final MBeanServer server;
+	
+	private final Map<ObjectName, Metric> registered = new HashMap<ObjectName, Metric>();
+	
+	/**
+	 * Creates an exporter publishing to the platform MBean server.
+	 * 
+	 * @param registry metrics to publish
+	 */
+	public JmxExporter(MetricsRegistry registry) {
+		this(registry, ManagementFactory.getPlatformMBeanServer());
+	}
+	
+	/**
+	 * Creates an exporter publishing to the given MBean server.
+	 * 
+	 * @param registry metrics to publish
+	 * @param server server to register the MBeans with
+	 */
+	public JmxExporter(MetricsRegistry registry, MBeanServer server) {
+		this.registry = registry;
+		this.server = server;
+	}
+	
+	/**
+	 * Registers an MBean for every metric that doesn't have one yet, and 
+	 * replaces the MBeans of metrics that have been replaced in the registry.
+	 */
+	public synchronized void register() {
+		for (Metric metric : registry.getMetrics()) {
+			try {
+				ObjectName name = nameOf(metric);
+				Metric current = registered.get(name);
+				if (current == metric) {
+					continue;
+				}
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(new MetricMBean(metric), name);
+				registered.put(name, metric);
+			} catch (JMException e) {
+				LOG.log(Level.WARNING, "Could not publish " + metric.getName(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Removes every MBean this exporter registered.
+	 */
+	public synchronized void unregister() {
+		Iterator<ObjectName> it = registered.keySet().iterator();
+		while (it.hasNext()) {
+			ObjectName name = it.next();
+			try {
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+			} catch (JMException e) {
+				LOG.log(Level.WARNING, "Could not remove " + name, e);
+			}
+			it.remove();
+		}
+	}
+	
+	/**
+	 * Builds the name a metric is published under, such as
+	 * org.rockhouse.jnoaaport:type=noaaport_packets_total,channel="1".
+	 * 
+	 * @param metric the metric
+	 * @return its MBean name
+	 * @throws JMException if the metric's name or labels can't be used
+	 */
+	static ObjectName nameOf(Metric metric) throws JMException {
+		StringBuilder name = new StringBuilder(DOMAIN).append(":type=").append(metric.getName());
+		for (int i = 0; i < metric.getLabelCount(); i++) {
+			name.append(',').append(metric.getLabelName(i)).append('=').append(ObjectName.quote(metric.getLabelValue(i)));
+		}
+		return new ObjectName(name.toString());
+	}
+	
+	/**
+	 * A read only MBean reading a metric whenever its attributes are read.
+	 */
+	private static class MetricMBean implements DynamicMBean {
+		
+		private final Metric metric;
+		
+		private final MBeanInfo info;
+		
+		MetricMBean(Metric metric) {
+			this.metric = metric;
+			MBeanAttributeInfo[] attributes;
+			if (metric instanceof Histogram) {
+				attributes = new MBeanAttributeInfo[] {
+						new MBeanAttributeInfo("Count", "long", "Values recorded", true, false, false),
+						new MBeanAttributeInfo("Sum", "long", "Total of the values recorded", true, false, false),
+						new MBeanAttributeInfo("Bounds", "[J", "Upper bound of each bucket", true, false, false),
+						new MBeanAttributeInfo("Buckets", "[J", "Values at or below each bound", true, false, false) };
+			} else {
+				attributes = new MBeanAttributeInfo[] {
+						new MBeanAttributeInfo("Value", "long", metric.getHelp(), true, false, false) };
+			}
+			info = new MBeanInfo(metric.getClass().getName(), metric.getHelp(), attributes, null, new MBeanOperationInfo[0], null);
+		}
+		
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			if (metric instanceof Histogram) {
+				Histogram histogram = (Histogram) metric;
+				if ("Count".equals(attribute)) {
+					return histogram.getCount();
+				} else if ("Sum".equals(attribute)) {
+					return histogram.getSum();
+				} else if ("Bounds".equals(attribute)) {
+					long[] bounds = new long[histogram.getBucketCount()];
+					for (int i = 0; i < bounds.length; i++) {
+						bounds[i] = histogram.getBound(i);
+					}
+					return bounds;
+				} else if ("Buckets".equals(attribute)) {
+					long[] buckets = new long[histogram.getBucketCount()];
+					long cumulative = 0;
+					for (int i = 0; i < buckets.length; i++) {
+						cumulative += histogram.getBucket(i);
+						buckets[i] = cumulative;
+					}
+					return buckets;
+				}
+			} else if ("Value".equals(attribute)) {
+				if (metric instanceof Counter) {
+					return ((Counter) metric).get();
+				}
+				return ((Gauge) metric).get();
+			}
+			throw new AttributeNotFoundException(attribute);
+		}
+		
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			AttributeList list = new AttributeList();
+			for (String attribute : attributes) {
+				try {
+					list.add(new Attribute(attribute, getAttribute(attribute)));
+				} catch (AttributeNotFoundException e) {
+					// Left out, as the interface asks
+				}
+			}
+			return list;
+		}
+		
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException(attribute.getName() + " is read only");
+		}
+		
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+		
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException, ReflectionException {
+			// Metrics are read only, so there is nothing to invoke
+			throw new ReflectionException(new NoSuchMethodException(actionName));
+		}
+		
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			return info;
+		}
+	}
+}
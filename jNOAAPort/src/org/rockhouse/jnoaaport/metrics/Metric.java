@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.metrics;
+
+/**
+ * Something measured about the ingest pipeline, identified by its name and
+ * a set of labels such as the channel it belongs to.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public abstract class Metric {
+	
+	private final String name;
+	
+	private final String help;
+	
+	private final String[] labels;
+	
+	/**
+	 * Creates a metric.
+	 * 
+	 * @param name name of the metric
+	 * @param help one line description of the metric
+	 * @param labels label names and values, alternating
+	 */
+	protected Metric(String name, String help, String[] labels) {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must come in name, value pairs: " + name);
+		}
+		this.name = name;
+		this.help = help;
+		this.labels = labels.clone();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public String getHelp() {
+		return help;
+	}
+	
+	/**
+	 * Gets the number of labels on the metric.
+	 * 
+	 * @return label count
+	 */
+	public int getLabelCount() {
+		return labels.length / 2;
+	}
+	
+	public String getLabelName(int index) {
+		return labels[index * 2];
+	}
+	
+	public String getLabelValue(int index) {
+		return labels[index * 2 + 1];
+	}
+	
+	/**
+	 * Gets the kind of metric: "counter", "gauge" or "histogram".
+	 * 
+	 * @return the metric type
+	 */
+	public abstract String getType();
+	
+	/**
+	 * Builds the key a registry files a metric under: its name followed by
+	 * its labels.
+	 */
+	static String key(String name, String[] labels) {
+		StringBuilder key = new StringBuilder(name).append('{');
+		for (int i = 0; i < labels.length; i += 2) {
+			if (i > 0) {
+				key.append(',');
+			}
+			key.append(labels[i]).append('=').append(labels[i + 1]);
+		}
+		return key.append('}').toString();
+	}
+}
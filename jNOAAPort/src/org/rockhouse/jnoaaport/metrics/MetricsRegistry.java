@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Holds the metrics of an ingest pipeline so they can be exported from one
+ * place.  Asking for a counter or histogram that already exists hands back 
+ * the existing one, so several threads doing the same job can share it.
+ * Metrics are kept sorted by name, then labels.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class MetricsRegistry {
+	
+	private final ConcurrentSkipListMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+	
+	/**
+	 * Gets or creates a counter.
+	 * 
+	 * @param name name of the counter
+	 * @param help one line description of the counter
+	 * @param labels label names and values, alternating
+	 * @return the counter
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		String key = Metric.key(name, labels);
+		Metric metric = metrics.get(key);
+		if (metric == null) {
+			Metric existing = metrics.putIfAbsent(key, new Counter(name, help, labels));
+			metric = existing == null ? metrics.get(key) : existing;
+		}
+		if (!(metric instanceof Counter)) {
+			throw new IllegalArgumentException(key + " is already a " + metric.getType());
+		}
+		return (Counter) metric;
+	}
+	
+	/**
+	 * Gets or creates a histogram.
+	 * 
+	 * @param name name of the histogram
+	 * @param help one line description of the histogram
+	 * @param bounds upper bounds of the buckets, in increasing order
+	 * @param labels label names and values, alternating
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name, String help, long[] bounds, String... labels) {
+		String key = Metric.key(name, labels);
+		Metric metric = metrics.get(key);
+		if (metric == null) {
+			Metric existing = metrics.putIfAbsent(key, new Histogram(name, help, bounds, labels));
+			metric = existing == null ? metrics.get(key) : existing;
+		}
+		if (!(metric instanceof Histogram)) {
+			throw new IllegalArgumentException(key + " is already a " + metric.getType());
+		}
+		return (Histogram) metric;
+	}
+	
+	/**
+	 * Registers a gauge, replacing any gauge already registered under the
+	 * same name and labels.
+	 * 
+	 * @param name name of the gauge
+	 * @param help one line description of the gauge
+	 * @param value where to read the value from
+	 * @param labels label names and values, alternating
+	 * @return the gauge
+	 */
+	public Gauge gauge(String name, String help, LongSupplier value, String... labels) {
+		return register(new Gauge(name, help, value, false, labels));
+	}
+	
+	/**
+	 * Registers a count kept somewhere else, to be reported as a counter.
+	 * Replaces anything already registered under the same name and labels.
+	 * 
+	 * @param name name of the counter
+	 * @param help one line description of the counter
+	 * @param value where to read the count from
+	 * @param labels label names and values, alternating
+	 * @return the gauge reading the count
+	 */
+	public Gauge functionCounter(String name, String help, LongSupplier value, String... labels) {
+		return register(new Gauge(name, help, value, true, labels));
+	}
+	
+	/**
+	 * Gets a snapshot of the registered metrics, sorted by name and labels.
+	 * 
+	 * @return the metrics
+	 */
+	public Collection<Metric> getMetrics() {
+		return new ArrayList<Metric>(metrics.values());
+	}
+	
+	private Gauge register(Gauge gauge) {
+		String key = Metric.key(gauge.getName(), labelsOf(gauge));
+		Metric old = metrics.put(key, gauge);
+		if (old != null && !(old instanceof Gauge)) {
+			metrics.put(key, old);
+			throw new IllegalArgumentException(key + " is already a " + old.getType());
+		}
+		return gauge;
+	}
+	
+	private static String[] labelsOf(Metric metric) {
+		String[] labels = new String[metric.getLabelCount() * 2];
+		for (int i = 0; i < metric.getLabelCount(); i++) {
+			labels[i * 2] = metric.getLabelName(i);
+			labels[i * 2 + 1] = metric.getLabelValue(i);
+		}
+		return labels;
+	}
+}
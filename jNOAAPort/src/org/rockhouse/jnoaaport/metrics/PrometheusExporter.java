@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics in a {@link MetricsRegistry} over HTTP in the 
+ * Prometheus text format, so a monitoring system can scrape the ingest
+ * pipeline.  Metrics are read at scrape time, nothing is kept in between,
+ * and the server runs on the JDK's built in HTTP server.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class PrometheusExporter {
+	
+	private static final Logger LOG = Logger.getLogger(PrometheusExporter.class.getName());
+	
+	/** The port the exporter listens on unless told otherwise. */
+	public static final int DEFAULT_PORT = 9109;
+	
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	
+	private final MetricsRegistry registry;
+	
+	private final InetSocketAddress address;
+	
+	private HttpServer server;
+	
+	/**
+	 * Creates an exporter for the local machine only, on the default port.
+	 * 
+	 * @param registry metrics to export
+	 */
+	public PrometheusExporter(MetricsRegistry registry) {
+		this(registry, new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT));
+	}
+	
+	/**
+	 * Creates an exporter listening on the given address.
+	 * 
+	 * @param registry metrics to export
+	 * @param address address and port to listen on
+	 */
+	public PrometheusExporter(MetricsRegistry registry, InetSocketAddress address) {
+		this.registry = registry;
+		this.address = address;
+	}
+	
+	/**
+	 * Starts serving the metrics at /metrics.
+	 * 
+	 * @throws IOException if the address can't be bound
+	 */
+	public synchronized void start() throws IOException {
+		if (server != null) {
+			return;
+		}
+		server = HttpServer.create(address, 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				serve(exchange);
+			}
+		});
+		server.start();
+		LOG.info("Serving metrics at http://" + address.getHostString() + ":" + getPort() + "/metrics");
+	}
+	
+	/**
+	 * Stops serving the metrics.
+	 */
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+	
+	/**
+	 * Gets the port being listened on, which is only known after starting
+	 * when the exporter was asked for port 0.
+	 * 
+	 * @return the port
+	 */
+	public synchronized int getPort() {
+		return server != null ? server.getAddress().getPort() : address.getPort();
+	}
+	
+	private void serve(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			if (!"GET".equals(method) && !"HEAD".equals(method)) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] body = format(registry).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if ("HEAD".equals(method)) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(body);
+			out.close();
+		} catch (RuntimeException e) {
+			LOG.log(Level.WARNING, "Could not export the metrics", e);
+			exchange.sendResponseHeaders(500, -1);
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Writes every metric in a registry in the Prometheus text format.
+	 * 
+	 * @param registry metrics to write
+	 * @return the formatted metrics
+	 */
+	public static String format(MetricsRegistry registry) {
+		StringBuilder out = new StringBuilder(4096);
+		String family = null;
+		// The registry keeps metrics of the same name next to each other
+		for (Metric metric : registry.getMetrics()) {
+			if (!metric.getName().equals(family)) {
+				family = metric.getName();
+				out.append("# HELP ").append(family).append(' ');
+				escape(out, metric.getHelp(), false);
+				out.append('\n');
+				out.append("# TYPE ").append(family).append(' ').append(metric.getType()).append('\n');
+			}
+			if (metric instanceof Counter) {
+				sample(out, family, metric, null, null).append(((Counter) metric).get()).append('\n');
+			} else if (metric instanceof Gauge) {
+				sample(out, family, metric, null, null).append(((Gauge) metric).get()).append('\n');
+			} else if (metric instanceof Histogram) {
+				Histogram histogram = (Histogram) metric;
+				long cumulative = 0;
+				for (int i = 0; i < histogram.getBucketCount(); i++) {
+					cumulative += histogram.getBucket(i);
+					long bound = histogram.getBound(i);
+					String le = bound == Long.MAX_VALUE ? "+Inf" : Long.toString(bound);
+					sample(out, family + "_bucket", metric, "le", le).append(cumulative).append('\n');
+				}
+				// Taken from the buckets so the count matches the +Inf bucket
+				sample(out, family + "_count", metric, null, null).append(cumulative).append('\n');
+				sample(out, family + "_sum", metric, null, null).append(histogram.getSum()).append('\n');
+			}
+		}
+		return out.toString();
+	}
+	
+	private static StringBuilder sample(StringBuilder out, String name, Metric metric, String extraName, String extraValue) {
+		out.append(name);
+		if (metric.getLabelCount() > 0 || extraName != null) {
+			out.append('{');
+			for (int i = 0; i < metric.getLabelCount(); i++) {
+				if (i > 0) {
+					out.append(',');
+				}
+				label(out, metric.getLabelName(i), metric.getLabelValue(i));
+			}
+			if (extraName != null) {
+				if (metric.getLabelCount() > 0) {
+					out.append(',');
+				}
+				label(out, extraName, extraValue);
+			}
+			out.append('}');
+		}
+		return out.append(' ');
+	}
+	
+	private static void label(StringBuilder out, String name, String value) {
+		out.append(name).append("=\"");
+		escape(out, value, true);
+		out.append('"');
+	}
+	
+	private static void escape(StringBuilder out, String text, boolean quotes) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\') {
+				out.append("\\\\");
+			} else if (c == '\n') {
+				out.append("\\n");
+			} else if (c == '"' && quotes) {
+				out.append("\\\"");
+			} else {
+				out.append(c);
+			}
+		}
+	}
+}
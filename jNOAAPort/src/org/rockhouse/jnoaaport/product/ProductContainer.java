@@ -22,7 +22,13 @@
 
 package org.rockhouse.jnoaaport.product;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * A ProductContainer manages the fragments as they are received from
@@ -30,26 +36,87 @@ import java.util.ArrayList;
  * all fragments are received, the container can be passed to a writer
  * that will be responsible for assembling the fragments.
  * 
+ * Fragments are slotted by their fragment number, so they may arrive in
+ * any order.  Fragments that show up before the product's header are kept
+ * until the header tells us how many to expect.
+ * 
+ * Once complete, the fragments can be read in order by iterating over the
+ * container, which leaves them in place so several readers can walk the 
+ * same product, or written out in one go with 
+ * {@link #writeTo(WritableByteChannel)}.
+ * 
+ * An assembled container copies each fragment straight from the packet 
+ * into a single direct buffer instead of keeping a byte array per fragment.
+ * Fragments that arrive early are held aside until the ones before them 
+ * show up, so the buffer always holds the product in order and can be
+ * written with a single call.
+ * 
  * @author Bryan Rockwood
  *
  */
-public class ProductContainer {
+public class ProductContainer implements Iterable<ProductFragment> {
 	private int sequenceNumber;
 	
 	private int numberFragments;
 	
+	private int datastream;
+	
+	private String productName;
+	
+	private int productCategory, productType, productCode;
+	
+	private long receiveStarted;
+	
+	private long byteCount;
+	
+	private boolean compressed;
+	
 	private boolean productStarted;
 	
-	private ProductFragment last;
+	// Every fragment, or only the ones waiting to be assembled
+	private ProductFragment[] productFragments;
+	
+	private BitSet received;
+	
+	private int receivedCount;
+	
+	// One past the highest fragment number received
+	private int fragmentLimit;
+	
+	private int readCursor;
+	
+	private final boolean assembled;
 	
-	private ArrayList<ProductFragment> productFragments;
+	private ByteBuffer assembly;
+	
+	// Next fragment number to be copied into the assembly buffer
+	private int assembledCount;
+	
+	private int[] fragmentOffsets;
+	
+	private BitSet compressedFragments;
+	
+	private static final int INITIAL_FRAGMENTS = 16;
 	
 	public ProductContainer(){
-		productFragments = new ArrayList<ProductFragment>();
+		this(false);
+	}
+	
+	/**
+	 * Creates a container.
+	 * 
+	 * @param assembled true to copy fragments into a single direct buffer
+	 */
+	public ProductContainer(boolean assembled){
+		this.assembled = assembled;
+		productFragments = new ProductFragment[INITIAL_FRAGMENTS];
+		received = new BitSet(INITIAL_FRAGMENTS);
 		productStarted = false;
-		last = null;
+		if(assembled){
+			fragmentOffsets = new int[INITIAL_FRAGMENTS + 1];
+			compressedFragments = new BitSet(INITIAL_FRAGMENTS);
+		}
 	}
-
 	/**
 	 * Retrieves the sequence number of the product these fragments
 	 * belong to.
@@ -87,6 +154,124 @@ public class ProductContainer {
 		numberFragments = numfrags;
 	}
 
+	/**
+	 * Returns the SBN datastream the product was received on.
+	 * 
+	 * @return the datastream
+	 */
+	public int getDatastream() {
+		return datastream;
+	}
+
+	/**
+	 * Sets the SBN datastream the product was received on.
+	 * 
+	 * @param stream the datastream
+	 */
+	public void setDatastream(int stream) {
+		datastream = stream;
+	}
+
+	/**
+	 * Returns the WMO header, or the best name the reader could find for
+	 * the product.
+	 * 
+	 * @return the product name, or null if the header hasn't arrived
+	 */
+	public String getProductName() {
+		return productName;
+	}
+
+	/**
+	 * Sets the WMO header of the product.
+	 * 
+	 * @param name the product name
+	 */
+	public void setProductName(String name) {
+		productName = name;
+	}
+
+	/**
+	 * Returns the product specific category from the PSH.
+	 * 
+	 * @return the category
+	 */
+	public int getProductCategory() {
+		return productCategory;
+	}
+
+	/**
+	 * Sets the product specific category from the PSH.
+	 * 
+	 * @param category the category
+	 */
+	public void setProductCategory(int category) {
+		productCategory = category;
+	}
+
+	/**
+	 * Returns the product specific type from the PSH.
+	 * 
+	 * @return the type
+	 */
+	public int getProductType() {
+		return productType;
+	}
+
+	/**
+	 * Sets the product specific type from the PSH.
+	 * 
+	 * @param type the type
+	 */
+	public void setProductType(int type) {
+		productType = type;
+	}
+
+	/**
+	 * Returns the product code from the PSH.
+	 * 
+	 * @return the code
+	 */
+	public int getProductCode() {
+		return productCode;
+	}
+
+	/**
+	 * Sets the product code from the PSH.
+	 * 
+	 * @param code the code
+	 */
+	public void setProductCode(int code) {
+		productCode = code;
+	}
+
+	/**
+	 * Returns when the first fragment of the product was received.
+	 * 
+	 * @return the time in milliseconds
+	 */
+	public long getReceiveStarted() {
+		return receiveStarted;
+	}
+
+	/**
+	 * Sets when the first fragment of the product was received.
+	 * 
+	 * @param millis the time in milliseconds
+	 */
+	public void setReceiveStarted(long millis) {
+		receiveStarted = millis;
+	}
+
+	/**
+	 * Returns the number of data bytes held by the container.
+	 * 
+	 * @return byte count
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
 	/**
 	 * Indicates if this container has fragments.
 	 * 
@@ -105,41 +290,220 @@ public class ProductContainer {
 		productStarted = prodstart;
 	}
 	
+	/**
+	 * Creates an empty container describing the same product as this one,
+	 * for holding a transformed copy of its data.  The copy still has to be
+	 * initialized with {@link #initProduct(int, int)}.
+	 * 
+	 * @param assembledCopy true for an assembled container
+	 * @return the new container
+	 */
+	public ProductContainer copyDescription(boolean assembledCopy){
+		ProductContainer copy = new ProductContainer(assembledCopy);
+		copy.sequenceNumber = sequenceNumber;
+		copy.datastream = datastream;
+		copy.productName = productName;
+		copy.productCategory = productCategory;
+		copy.productType = productType;
+		copy.productCode = productCode;
+		copy.receiveStarted = receiveStarted;
+		return copy;
+	}
+	
 	/**
 	 * Initialize the container to the specified sequence and fragment
 	 * count.
 	 * 
 	 * @param seqnum sequence number of the product
 	 * @param numfrag fragment count
+	 * @throws ProductContainerException if fragments that arrived early don't fit in the product
 	 */
-	public void initProduct(int seqnum, int numfrag){
+	public void initProduct(int seqnum, int numfrag) throws ProductContainerException{
+		if(numfrag > 0 && fragmentLimit > numfrag){
+			throw new ProductContainerException("Already holding fragment " + (fragmentLimit - 1) + " of a " + numfrag + " fragment product.");
+		}
 		sequenceNumber = seqnum;
 		numberFragments = numfrag;
 		productStarted = true;
+		ensureCapacity(numfrag);
 	}
 	
 	/**
-	 * Inserts a product fragment into the end of the container.
+	 * Copies a fragment out of a packet and adds it to the container.  An
+	 * assembled container copies it straight into its buffer, otherwise it
+	 * is copied into a new array and handled like
+	 * {@link #setProductFragment(int, short, byte[], boolean)}.  The
+	 * buffer's position is changed.
+	 * 
+	 * @param seqNum sequence number of fragment
+	 * @param fragNum the fragment's number
+	 * @param packet buffer holding the packet
+	 * @param offset index of the fragment's first byte
+	 * @param length length of the fragment
+	 * @param isCompressed is the packet compressed
+	 * @throws ProductContainerException if the fragment belongs to another product or is past the end of this one
+	 */
+	public void addFragment(int seqNum, short fragNum, ByteBuffer packet, int offset, int length, boolean isCompressed) throws ProductContainerException{
+		int index = checkFragment(seqNum, fragNum);
+		if(index < 0){
+			return;
+		}
+		int limit = packet.limit();
+		packet.limit(offset + length).position(offset);
+		if(assembled && index == assembledCount){
+			appendFragment(index, packet, isCompressed);
+			receivedFragment(index, length, isCompressed);
+			appendWaitingFragments();
+		} else {
+			// Not assembled, or early and waiting for the gap to be filled
+			byte[] data = new byte[length];
+			packet.get(data);
+			storeFragment(index, seqNum, fragNum, data, isCompressed);
+		}
+		packet.limit(limit);
+	}
+	
+	/**
+	 * Inserts a product fragment into the container at the slot for its
+	 * fragment number.  A fragment that has already been received is 
+	 * ignored.
 	 * 
 	 * @param seqNum sequence number of fragment (which differs from the product sequence number... yeah)
 	 * @param fragNum the fragment's number 
 	 * @param data the packet's data
 	 * @param isCompressed is the packet compressed
-	 * @throws ProductContainerException if the fragment inserted is out of order, a ProductContainerException is thrown
+	 * @throws ProductContainerException if the fragment belongs to another product or is past the end of this one
 	 */
 	public void setProductFragment(int seqNum, short fragNum, byte[] data, boolean isCompressed) throws ProductContainerException{
+		int index = checkFragment(seqNum, fragNum);
+		if(index < 0){
+			return;
+		}
+		storeFragment(index, seqNum, fragNum, data, isCompressed);
+		if(assembled){
+			appendWaitingFragments();
+		}
+	}
+	
+	/**
+	 * Makes sure a fragment belongs in this container.
+	 * 
+	 * @return the fragment's slot, or -1 if it has already been received
+	 */
+	private int checkFragment(int seqNum, short fragNum) throws ProductContainerException{
+		if(seqNum != sequenceNumber){
+			throw new ProductContainerException("Fragment from product " + seqNum + " added to product " + sequenceNumber + ".");
+		}
+		int index = fragNum & 0xFFFF;
+		if(numberFragments != 0 && index >= numberFragments){
+			throw new ProductContainerException("Fragment " + index + " is past the end of a " + numberFragments + " fragment product.");
+		}
+		if(received.get(index)){
+			// Retransmitted fragment
+			return -1;
+		}
+		ensureCapacity(index + 1);
+		return index;
+	}
+	
+	private void storeFragment(int index, int seqNum, short fragNum, byte[] data, boolean isCompressed){
 		ProductFragment pf = new ProductFragment();
 		pf.sequenceNumber = seqNum;
 		pf.fragmentNumber = fragNum;
 		pf.data = data;
 		pf.isCompressed = isCompressed;
-		productFragments.add(pf);
-		if(numberFragments != 0 && last != null){
-			if(fragNum != last.fragmentNumber + 1 || seqNum != sequenceNumber){
-				throw new ProductContainerException("Missing fragment in sequence.");
-			}
+		productFragments[index] = pf;
+		receivedFragment(index, data.length, isCompressed);
+	}
+	
+	private void receivedFragment(int index, int length, boolean isCompressed){
+		received.set(index);
+		receivedCount++;
+		fragmentLimit = Math.max(fragmentLimit, index + 1);
+		byteCount += length;
+		compressed |= isCompressed;
+	}
+	
+	/**
+	 * Copies the remaining bytes of the source onto the end of the assembly
+	 * buffer, growing it if need be.
+	 */
+	private void appendFragment(int index, ByteBuffer source, boolean isCompressed){
+		int length = source.remaining();
+		int end = fragmentOffsets[index];
+		if(assembly == null){
+			// Assume the rest of the fragments are about the size of the first
+			int expected = Math.max(numberFragments, 1);
+			assembly = ByteBuffer.allocateDirect(Math.max(length * expected, length));
+		} else if(assembly.capacity() - end < length){
+			ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(assembly.capacity() * 2, end + length));
+			assembly.limit(end).position(0);
+			larger.put(assembly);
+			assembly = larger;
+		}
+		assembly.limit(assembly.capacity()).position(end);
+		assembly.put(source);
+		fragmentOffsets[index + 1] = end + length;
+		if(isCompressed){
+			compressedFragments.set(index);
+		}
+		assembledCount = index + 1;
+	}
+	
+	/**
+	 * Moves fragments that arrived early into the assembly buffer once the
+	 * fragments before them are in.
+	 */
+	private void appendWaitingFragments(){
+		while(assembledCount < fragmentLimit && productFragments[assembledCount] != null){
+			ProductFragment pf = productFragments[assembledCount];
+			productFragments[assembledCount] = null;
+			appendFragment(assembledCount, ByteBuffer.wrap(pf.data), pf.isCompressed);
+		}
+	}
+	
+	/**
+	 * Determines if every fragment of the product has been received.  A
+	 * product whose header didn't give a fragment count is complete as soon
+	 * as it has any fragment.
+	 * 
+	 * @return true if the product is complete
+	 */
+	public boolean isComplete(){
+		if(!productStarted){
+			return false;
+		}
+		if(numberFragments == 0){
+			return receivedCount > 0;
 		}
-		last = pf;
+		return receivedCount == numberFragments;
+	}
+	
+	/**
+	 * Indicates if any of the product's fragments are compressed.
+	 * 
+	 * @return true if the product needs to be inflated
+	 */
+	public boolean isCompressed(){
+		return compressed;
+	}
+	
+	/**
+	 * Indicates if the container copies fragments into a single buffer.
+	 * 
+	 * @return true if this is an assembled container
+	 */
+	public boolean isAssembled(){
+		return assembled;
+	}
+	
+	/**
+	 * Returns the number of distinct fragments received so far.
+	 * 
+	 * @return fragment count
+	 */
+	public int getReceivedFragments(){
+		return receivedCount;
 	}
 	
 	/**
@@ -149,17 +513,205 @@ public class ProductContainer {
 	 * @return true if the container still has fragments
 	 */
 	public boolean hasFragments(){
-		return !productFragments.isEmpty();
+		while(readCursor < fragmentLimit && !hasFragment(readCursor)){
+			readCursor++;
+		}
+		return readCursor < fragmentLimit;
 	}
 	
 	/**
 	 * Returns the next fragment in order.  This will remove the fragment
-	 * from the container.
+	 * from a container that isn't assembled.
 	 * 
 	 * @return a product fragment
 	 */
 	public ProductFragment getNextFragment(){
-		return productFragments.remove(0);
+		if(!hasFragments()){
+			return null;
+		}
+		ProductFragment pf = getFragment(readCursor);
+		if(!assembled){
+			productFragments[readCursor] = null;
+		}
+		readCursor++;
+		return pf;
+	}
+	
+	/**
+	 * Returns one past the highest fragment number received, which is the
+	 * number of fragments in a complete product.
+	 * 
+	 * @return fragment slot count
+	 */
+	public int getFragmentCount(){
+		return fragmentLimit;
+	}
+	
+	/**
+	 * Returns the fragment with the given number without removing it.  For
+	 * an assembled container the fragment's data is copied out of the 
+	 * buffer; {@link #getAssembledFragment(int)} avoids the copy.
+	 * 
+	 * @param index the fragment number
+	 * @return the fragment, or null if it hasn't been received
+	 */
+	public ProductFragment getFragment(int index){
+		if(index < 0 || index >= fragmentLimit){
+			return null;
+		}
+		if(!assembled || index >= assembledCount){
+			return productFragments[index];
+		}
+		ByteBuffer source = getAssembledFragment(index);
+		ProductFragment pf = new ProductFragment();
+		pf.sequenceNumber = sequenceNumber;
+		pf.fragmentNumber = (short) index;
+		pf.data = new byte[source.remaining()];
+		source.get(pf.data);
+		pf.isCompressed = compressedFragments.get(index);
+		return pf;
+	}
+	
+	/**
+	 * Returns how many fragments, counting from the first, have been copied
+	 * into the assembly buffer.
+	 * 
+	 * @return assembled fragment count, always 0 if the container isn't assembled
+	 */
+	public int getAssembledCount(){
+		return assembledCount;
+	}
+	
+	/**
+	 * Returns a view of one fragment in the assembly buffer.
+	 * 
+	 * @param index the fragment number
+	 * @return a buffer positioned over the fragment's data
+	 * @throws IllegalStateException if the fragment hasn't been assembled
+	 */
+	public ByteBuffer getAssembledFragment(int index){
+		if(!assembled || index < 0 || index >= assembledCount){
+			throw new IllegalStateException("Fragment " + index + " has not been assembled.");
+		}
+		ByteBuffer view = assembly.duplicate();
+		view.limit(fragmentOffsets[index + 1]).position(fragmentOffsets[index]);
+		return view;
+	}
+	
+	/**
+	 * Indicates if an assembled fragment is compressed.
+	 * 
+	 * @param index the fragment number
+	 * @return true if the fragment needs to be inflated
+	 */
+	public boolean isFragmentCompressed(int index){
+		if(assembled && index < assembledCount){
+			return compressedFragments.get(index);
+		}
+		ProductFragment pf = getFragment(index);
+		return pf != null && pf.isCompressed;
+	}
+	
+	/**
+	 * Returns a view of everything in the assembly buffer, which is the
+	 * whole product, in order, once the container is complete.
+	 * 
+	 * @return a buffer positioned over the assembled data
+	 */
+	public ByteBuffer getAssembledData(){
+		if(assembly == null){
+			return ByteBuffer.allocate(0);
+		}
+		ByteBuffer view = assembly.duplicate();
+		view.limit(fragmentOffsets[assembledCount]).position(0);
+		return view;
+	}
+	
+	/**
+	 * Returns an iterator over the fragments in order.  Unlike 
+	 * {@link #getNextFragment()} this doesn't remove anything, and each
+	 * iterator keeps its own place.
+	 * 
+	 * @return a fragment iterator
+	 */
+	@Override
+	public Iterator<ProductFragment> iterator(){
+		return new FragmentIterator();
+	}
+	
+	/**
+	 * Writes the data of every fragment, in order and as received, to the
+	 * channel.  Compressed fragments are written compressed.  An assembled
+	 * container writes its whole buffer at once.
+	 * 
+	 * @param channel where to write the product
+	 * @return number of bytes written
+	 * @throws IOException if the channel can't be written to
+	 */
+	public long writeTo(WritableByteChannel channel) throws IOException{
+		long written = 0;
+		int first = 0;
+		if(assembled){
+			ByteBuffer data = getAssembledData();
+			while(data.hasRemaining()){
+				written += channel.write(data);
+			}
+			first = assembledCount;
+		}
+		for(int i = first; i < fragmentLimit; i++){
+			ProductFragment pf = productFragments[i];
+			if(pf == null){
+				continue;
+			}
+			ByteBuffer data = ByteBuffer.wrap(pf.data);
+			while(data.hasRemaining()){
+				written += channel.write(data);
+			}
+		}
+		return written;
+	}
+	
+	private boolean hasFragment(int index){
+		if(assembled && index < assembledCount){
+			return true;
+		}
+		return productFragments[index] != null;
+	}
+	
+	private void ensureCapacity(int count){
+		if(count > productFragments.length){
+			int size = Math.max(count, productFragments.length * 2);
+			if(numberFragments > 0){
+				size = Math.min(size, Math.max(count, numberFragments));
+			}
+			productFragments = Arrays.copyOf(productFragments, size);
+			if(assembled){
+				fragmentOffsets = Arrays.copyOf(fragmentOffsets, size + 1);
+			}
+		}
+	}
+	
+	/**
+	 * Walks the fragment slots, skipping any that are empty.
+	 */
+	private class FragmentIterator implements Iterator<ProductFragment> {
+		private int cursor = 0;
+		
+		@Override
+		public boolean hasNext(){
+			while(cursor < fragmentLimit && !hasFragment(cursor)){
+				cursor++;
+			}
+			return cursor < fragmentLimit;
+		}
+		
+		@Override
+		public ProductFragment next(){
+			if(!hasNext()){
+				throw new NoSuchElementException();
+			}
+			return getFragment(cursor++);
+		}
 	}
 
 }
@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.product;
+
+/**
+ * Decides whether a product is wanted, based on what its product specific
+ * header says about it.  Filters may be called from several threads at once.
+ * 
+ * A filter that can decide on the TTAAii and CCCC of a product's WMO heading
+ * alone says so through {@link #needsProductName()}.  Products with a 
+ * heading are then checked without building their name, which matters when
+ * most products are thrown away at their first block.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public interface ProductFilter {
+	
+	/**
+	 * Checks a product against the filter.
+	 * 
+	 * @param productName the WMO header, or best available name, of the product
+	 * @param category product specific category from the PSH
+	 * @param type product specific type from the PSH
+	 * @param code product code from the PSH
+	 * @return true if the product is wanted
+	 */
+	public boolean accept(String productName, int category, int type, int code);
+	
+	/**
+	 * Tells whether the filter needs the whole product name to decide.
+	 * 
+	 * @return false if {@link #accept(long, int, int, int, int)} is enough
+	 * for products with a WMO heading
+	 */
+	public default boolean needsProductName() {
+		return true;
+	}
+	
+	/**
+	 * Checks a product against the filter by its WMO heading.  The TTAAii
+	 * and CCCC are packed big-endian, one byte per character, as made by
+	 * {@link org.rockhouse.jnoaaport.readnoaaport.WmoHeader#code(String)}.
+	 * The default checks a name made from the two fields.
+	 * 
+	 * @param ttaaii packed TTAAii of the heading
+	 * @param cccc packed CCCC of the heading
+	 * @param category product specific category from the PSH
+	 * @param type product specific type from the PSH
+	 * @param code product code from the PSH
+	 * @return true if the product is wanted
+	 */
+	public default boolean accept(long ttaaii, int cccc, int category, int type, int code) {
+		char[] name = new char[11];
+		for (int i = 5; i >= 0; i--) {
+			name[i] = (char) (ttaaii & 0xFF);
+			ttaaii >>>= 8;
+		}
+		name[6] = ' ';
+		for (int i = 10; i >= 7; i--) {
+			name[i] = (char) (cccc & 0xFF);
+			cccc >>>= 8;
+		}
+		return accept(new String(name), category, type, code);
+	}
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.queue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock free ring buffer for handing elements from exactly one 
+ * producer thread to exactly one consumer thread.  The capacity is rounded
+ * up to a power of two.  Once the ring is full, the {@link OverflowPolicy}
+ * decides whether new elements are dropped or the producer waits.  Waiting
+ * on either side is done according to the {@link WaitStrategy}.
+ * 
+ * Only one thread may call the offer methods and only one thread may call
+ * the poll methods.
+ * 
+ * @author Bryan Rockwood
+ *
+ * @param <E> the element type
+ */
+public class SpscRingBuffer<E> {
+	
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	private final Object[] buffer;
+	
+	private final int mask;
+	
+	private final WaitStrategy waitStrategy;
+	
+	private final OverflowPolicy overflowPolicy;
+	
+	/** Next slot the consumer will read. */
+	private final AtomicLong head = new AtomicLong();
+	
+	/** Next slot the producer will write. */
+	private final AtomicLong tail = new AtomicLong();
+	
+	private final AtomicLong dropped = new AtomicLong();
+	
+	private volatile Thread waitingConsumer;
+	
+	private volatile Thread waitingProducer;
+	
+	// Producer side copy of head so it only reads the volatile when it looks full
+	private long cachedHead;
+	
+	// Consumer side copy of tail so it only reads the volatile when it looks empty
+	private long cachedTail;
+
+	/**
+	 * Creates a ring buffer.
+	 * 
+	 * @param capacity minimum number of elements the ring can hold
+	 * @param waitStrategy how to wait when the ring is empty or full
+	 * @param overflowPolicy what to do when the ring is full
+	 */
+	public SpscRingBuffer(int capacity, WaitStrategy waitStrategy, OverflowPolicy overflowPolicy) {
+		if (capacity < 1 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid ring buffer capacity: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		buffer = new Object[size];
+		mask = size - 1;
+		this.waitStrategy = waitStrategy;
+		this.overflowPolicy = overflowPolicy;
+	}
+	
+	/**
+	 * Adds an element to the ring.  If the ring is full the element is either
+	 * dropped or the caller waits, depending on the overflow policy.
+	 * 
+	 * @param e the element to add
+	 * @return true if the element was added, false if it was dropped
+	 */
+	public boolean offer(E e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		long t = tail.get();
+		if (t - cachedHead > mask) {
+			cachedHead = head.get();
+			if (t - cachedHead > mask) {
+				if (overflowPolicy == OverflowPolicy.DROP) {
+					dropped.incrementAndGet();
+					return false;
+				}
+				if (!awaitSpace(t)) {
+					dropped.incrementAndGet();
+					return false;
+				}
+			}
+		}
+		buffer[(int) t & mask] = e;
+		publish(tail, t + 1);
+		signal(waitingConsumer);
+		return true;
+	}
+	
+	/**
+	 * Takes the next element off the ring without waiting.
+	 * 
+	 * @return the next element, or null if the ring is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long h = head.get();
+		if (h >= cachedTail) {
+			cachedTail = tail.get();
+			if (h >= cachedTail) {
+				return null;
+			}
+		}
+		int index = (int) h & mask;
+		E e = (E) buffer[index];
+		buffer[index] = null;
+		publish(head, h + 1);
+		signal(waitingProducer);
+		return e;
+	}
+	
+	/**
+	 * Takes the next element off the ring, waiting up to the given time for
+	 * one to arrive.
+	 * 
+	 * @param timeout how long to wait
+	 * @param unit the unit of the timeout
+	 * @return the next element, or null if the time ran out or the thread was
+	 * interrupted
+	 */
+	public E poll(long timeout, TimeUnit unit) {
+		E e = poll();
+		if (e != null) {
+			return e;
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (true) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+				return null;
+			}
+			if (waitStrategy == WaitStrategy.PARK) {
+				waitingConsumer = Thread.currentThread();
+				e = poll();
+				if (e == null) {
+					LockSupport.parkNanos(this, Math.min(remaining, MAX_PARK_NANOS));
+					e = poll();
+				}
+				waitingConsumer = null;
+			} else {
+				idle();
+				e = poll();
+			}
+			if (e != null) {
+				return e;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of elements currently in the ring.
+	 * 
+	 * @return element count
+	 */
+	public int size() {
+		long h = head.get();
+		return (int) Math.max(0, tail.get() - h);
+	}
+	
+	/**
+	 * Returns the maximum number of elements the ring can hold.
+	 * 
+	 * @return ring capacity
+	 */
+	public int capacity() {
+		return buffer.length;
+	}
+	
+	/**
+	 * Returns how many elements have been dropped because the ring was full.
+	 * 
+	 * @return drop count
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * Waits for the consumer to free a slot.
+	 * 
+	 * @param t the producer's current tail
+	 * @return true once there is room, false if the thread was interrupted
+	 */
+	private boolean awaitSpace(long t) {
+		while (true) {
+			if (Thread.currentThread().isInterrupted()) {
+				return false;
+			}
+			if (waitStrategy == WaitStrategy.PARK) {
+				waitingProducer = Thread.currentThread();
+				cachedHead = head.get();
+				if (t - cachedHead > mask) {
+					LockSupport.parkNanos(this, MAX_PARK_NANOS);
+				}
+				waitingProducer = null;
+			} else {
+				idle();
+			}
+			cachedHead = head.get();
+			if (t - cachedHead <= mask) {
+				return true;
+			}
+		}
+	}
+	
+	private void idle() {
+		if (waitStrategy == WaitStrategy.YIELD) {
+			Thread.yield();
+		} else {
+			Thread.onSpinWait();
+		}
+	}
+	
+	private void publish(AtomicLong index, long value) {
+		if (waitStrategy == WaitStrategy.PARK) {
+			// A full fence so the other side either sees the new index or we see it waiting
+			index.set(value);
+		} else {
+			index.lazySet(value);
+		}
+	}
+	
+	private void signal(Thread waiter) {
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+
+package org.rockhouse.jnoaaport.readnoaaport;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.logging.Logger;
+
+import org.rockhouse.jnoaaport.dvbs.MappedCaptureReader;
+import org.rockhouse.jnoaaport.metrics.MetricsRegistry;
+import org.rockhouse.jnoaaport.product.ProductContainer;
+import org.rockhouse.jnoaaport.product.ProductFilter;
+
+/**
+ * Reassembles the products in capture files without a receiver, queue or
+ * packet buffer in between.  Captures are read through a 
+ * {@link MappedCaptureReader} and every frame is parsed where it lies in
+ * the mapping, so reprocessing runs about as fast as the file can be read.
+ * 
+ * Each channel gets its own {@link NOAAPortReader}, just as it would live,
+ * and frames are timed by when they were recorded rather than the clock.
+ * All of the readers put their products on the same queue, which has to
+ * be drained as fast as the products arrive.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class CaptureReprocessor {
+	
+	private static final Logger LOG = Logger.getLogger(CaptureReprocessor.class.getName());
+	
+	private static final int MAX_CHANNEL = 255;
+	
+	private final Queue<ProductContainer> productQueue;
+	
+	private final NOAAPortReader[] readers = new NOAAPortReader[MAX_CHANNEL + 1];
+	
+	private ProductFilter productFilter;
+	
+	private MetricsRegistry registry;
+	
+	private long frames;
+	
+	/**
+	 * Creates a reprocessor putting completed products on a queue.
+	 * 
+	 * @param productQueue queue for completed products
+	 */
+	public CaptureReprocessor(Queue<ProductContainer> productQueue) {
+		this.productQueue = productQueue;
+	}
+	
+	/**
+	 * Sets the filter every channel's reader checks new products against.
+	 * Call before processing.
+	 * 
+	 * @param filter the filter, or null to keep every product
+	 * @see NOAAPortReader#setProductFilter(ProductFilter)
+	 */
+	public void setProductFilter(ProductFilter filter) {
+		productFilter = filter;
+	}
+	
+	/**
+	 * Counts every channel's frames and products in a registry.  Call 
+	 * before processing.
+	 * 
+	 * @param registry registry to report to
+	 */
+	public void registerMetrics(MetricsRegistry registry) {
+		this.registry = registry;
+	}
+	
+	/**
+	 * Reassembles every frame in a capture file.  Several captures can be
+	 * processed one after another, in the order they were recorded.
+	 * 
+	 * @param path the capture file
+	 * @return number of frames processed
+	 * @throws IOException if the capture can't be read
+	 */
+	public long process(Path path) throws IOException {
+		long start = frames;
+		MappedCaptureReader capture = new MappedCaptureReader(path);
+		try {
+			while (capture.next()) {
+				NOAAPortReader reader = getReader(capture.getChannel());
+				if (reader == null) {
+					continue;
+				}
+				reader.processPacket(capture.getBuffer(), capture.getOffset(), capture.getLength(), capture.getTimestamp() / 1000);
+				frames++;
+			}
+		} finally {
+			capture.close();
+		}
+		LOG.info("Reprocessed " + (frames - start) + " frames from " + path);
+		return frames - start;
+	}
+	
+	/**
+	 * Gets the number of frames processed so far.
+	 * 
+	 * @return frame count
+	 */
+	public long getFrames() {
+		return frames;
+	}
+	
+	private NOAAPortReader getReader(int channel) {
+		if (channel > MAX_CHANNEL) {
+			return null;
+		}
+		NOAAPortReader reader = readers[channel];
+		if (reader == null) {
+			reader = new NOAAPortReader(productQueue);
+			reader.setProductFilter(productFilter);
+			if (registry != null) {
+				reader.registerMetrics(registry, "channel", String.valueOf(channel));
+			}
+			readers[channel] = reader;
+		}
+		return reader;
+	}
+}
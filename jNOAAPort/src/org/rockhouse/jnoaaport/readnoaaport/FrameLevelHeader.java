@@ -22,9 +22,15 @@
 
 package org.rockhouse.jnoaaport.readnoaaport;
 
+import java.nio.ByteBuffer;
+
 /**
  * Decodes the frame level header which is the first header in any packet.
  * 
+ * The header is a view over the packet buffer: {@link #readHeader(ByteBuffer, int)}
+ * checks the frame and remembers where it is, and each field is decoded 
+ * when it is asked for.  The view is only good until the buffer is reused.
+ * 
  * This code is based on C code provided by Unidata and available online at 
  * the link below.
  *   
@@ -35,35 +41,52 @@ package org.rockhouse.jnoaaport.readnoaaport;
  */
 public class FrameLevelHeader {
 	
-	private int version;
-	private int length;
-	private int datastream;
-	private long sequenceNumber;
-	private int runNumber;
-	private int command;
+	private ByteBuffer header;
+	private int offset;
 	private long checksum;
 	private boolean validPacket = true;
+	// Read by metrics exporters on other threads
+	private volatile long checksumFailures;
+
+	// Picks out every other byte of a long, or of each half of it
+	private static final long EVEN_BYTES = 0x00FF00FF00FF00FFL;
+	private static final long EVEN_SHORTS = 0x0000FFFF0000FFFFL;
 
 	public FrameLevelHeader() {
 	}
 	
 	public boolean readHeader(byte[] header) {
-		int b1, b2;
+		return readHeader(ByteBuffer.wrap(header), 0);
+	}
+	
+	/**
+	 * Checks the frame level header starting at the given index of the 
+	 * buffer and makes this a view of it.  The buffer's position is not 
+	 * changed.  Bad frames are counted rather than reported, since a fade 
+	 * can produce thousands of them a second.
+	 * 
+	 * @param header buffer holding the frame
+	 * @param offset index of the first byte of the frame
+	 * @return true if the header is valid
+	 */
+	public boolean readHeader(ByteBuffer header, int offset) {
+		int b1;
 		long lval;
-		long csum = 0;
-		int i;
-		lval = ((header[14] & 0xFF) << 8) + (header[15] & 0xFF);
-		for (i = 0; i < 14; i++) {
-			csum = csum + (header[i] & 0xFF);
-		}
+		long csum;
+		this.header = header;
+		this.offset = offset;
+		lval = header.getShort(offset + 14) & 0xFFFF;
+		// The checksum is the sum of the first 14 bytes, read 8 + 4 + 2 at a time
+		csum = sumBytes(header.getLong(offset))
+				+ sumBytes(header.getInt(offset + 8) & 0xFFFFFFFFL)
+				+ (header.get(offset + 12) & 0xFF) + (header.get(offset + 13) & 0xFF);
 		if (csum != lval) {
-			System.out.println("SBN checksum invalid. Expected: " + lval
-					+ " Calculated: " + csum);
+			checksumFailures++;
 			return false;
 		} else {
 			checksum = csum;
 		}
-		b1 = header[0] & 0xFF;
+		b1 = header.get(offset) & 0xFF;
 		if (b1 != 255) {
 			// Code from readsbn.c. Appears to print out the first 32 bytes
 			// in the packet in search of the start. Why this is done after
@@ -73,14 +96,8 @@ public class FrameLevelHeader {
 			 */
 			return false;
 		}
-		b1 = (header[2] >> 4) & 0xFF;
-		b2 = ((header[2] & 0xFF) & 15);
-		version = b1;
-		length = b2 * 4;
-
-		command = header[4] & 0xFF;
 
-		switch (command) {
+		switch (getCommand()) {
 		case 3: /* product format data transfer */
 		case 5: /* Synchonize timing */
 		case 10:/* Test message */
@@ -89,39 +106,42 @@ public class FrameLevelHeader {
 			// uerror ( "Invalid SBN command %d", sbn->command );
 			return false;
 		}
-
-		datastream = header[5] & 0xFF;
-
-		sequenceNumber = (((((((header[8] & 0xFF) << 8) + (header[9] & 0xFF)) << 8) + (header[10] & 0xFF)) << 8) + (header[11] & 0xFF));
-		
-		runNumber = ((header[12] & 0xFF) << 8) + (header[13] & 0xFF);
 		
 		return true;
 
 	}
 
+	/**
+	 * Adds up the eight bytes of a long, two and then four lanes at a time.
+	 */
+	private static long sumBytes(long value) {
+		long sum = (value & EVEN_BYTES) + ((value >>> 8) & EVEN_BYTES);
+		sum = (sum & EVEN_SHORTS) + ((sum >>> 16) & EVEN_SHORTS);
+		return (sum & 0xFFFFFFFFL) + (sum >>> 32);
+	}
+
 	public int getVersion() {
-		return version;
+		return (header.get(offset + 2) >> 4) & 0x0F;
 	}
 
 	public int getLength() {
-		return length;
+		return (header.get(offset + 2) & 15) * 4;
 	}
 
 	public int getDatastream() {
-		return datastream;
+		return header.get(offset + 5) & 0xFF;
 	}
 
 	public long getSequenceNumber() {
-		return sequenceNumber;
+		return header.getInt(offset + 8) & 0xFFFFFFFFL;
 	}
 
 	public int getRunNumber() {
-		return runNumber;
+		return header.getShort(offset + 12) & 0xFFFF;
 	}
 
 	public int getCommand() {
-		return command;
+		return header.get(offset + 4) & 0xFF;
 	}
 
 	public long getChecksum() {
@@ -132,4 +152,13 @@ public class FrameLevelHeader {
 		return validPacket;
 	}
 
+	/**
+	 * Returns the number of frames that failed the checksum.
+	 * 
+	 * @return checksum failure count
+	 */
+	public long getChecksumFailures() {
+		return checksumFailures;
+	}
+
 }
@@ -22,12 +22,23 @@
 
 package org.rockhouse.jnoaaport.readnoaaport;
 
-import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import org.rockhouse.jnoaaport.dvbs.PacketBuffer;
+import org.rockhouse.jnoaaport.log.RepeatedEvent;
+import org.rockhouse.jnoaaport.metrics.Counter;
+import org.rockhouse.jnoaaport.metrics.Histogram;
+import org.rockhouse.jnoaaport.metrics.MetricsRegistry;
 import org.rockhouse.jnoaaport.product.ProductContainer;
 import org.rockhouse.jnoaaport.product.ProductContainerException;
+import org.rockhouse.jnoaaport.product.ProductFilter;
+import org.rockhouse.jnoaaport.queue.SpscRingBuffer;
 
 /**
  * The meat and potatoes of the NOAAPort ingest software.  This will take
@@ -45,9 +56,13 @@ import org.rockhouse.jnoaaport.product.ProductContainerException;
  */
 public class NOAAPortReader implements Runnable {
 
-	private Queue<DatagramPacket> sharedQueue;
+	private static final Logger LOG = Logger.getLogger(NOAAPortReader.class.getName());
+
+	private static final long STOP_CHECK_MILLIS = 100;
+
+	private SpscRingBuffer<PacketBuffer> sharedQueue;
 	
-	private ConcurrentLinkedQueue<ProductContainer> productQueue;
+	private Queue<ProductContainer> productQueue;
 
 	private volatile boolean stopRequest = false;
 
@@ -55,10 +70,61 @@ public class NOAAPortReader implements Runnable {
 
 	private long numberMissedPackets;
 
+	private boolean trackSbnSequence = true;
+
+	private FrameLevelHeader flheader;
+
+	private ProductDefinitionHeader pdheader;
+
+	private ProductSpecificHeader psheader;
+
+	// The PSH is a view of a packet that may be gone by the next one
+	private int lastProductCategory;
+
+	private ReassemblyTable reassemblyTable;
+
+	// How often to look for products that have stopped receiving fragments
+	private static final long EVICT_INTERVAL_MILLIS = 1000;
+
+	private long lastEviction;
+
+	// Bad frames are counted and reported once an interval, not one by one
+	private Counter badFrames;
+
+	private long reportedBadFrames;
+
+	// Repetitive problems are logged at most once every few seconds
+	private final RepeatedEvent gaps = new RepeatedEvent(LOG, Level.WARNING, "Found SBN gaps", 10000);
+
+	private final RepeatedEvent punts = new RepeatedEvent(LOG, Level.WARNING, "Punted frames", 10000);
+
+	private ProductFilter productFilter;
+
+	private Counter ignoredFragments;
+
+	private Counter completedProducts, abortedProducts, evictedProducts;
+
+	private Histogram productLatency;
+
 	public NOAAPortReader() {
+		this(new LinkedBlockingQueue<ProductContainer>());
+	}
+
+	/**
+	 * Creates a reader that puts completed products on the given queue, so
+	 * several readers can feed the same writer.
+	 * 
+	 * @param productQueue queue for completed products
+	 */
+	public NOAAPortReader(Queue<ProductContainer> productQueue) {
 		lastSbnSequenceNumber = -1;
 		numberMissedPackets = 0;
-		productQueue = new ConcurrentLinkedQueue<ProductContainer>();
+		this.productQueue = productQueue;
+		flheader = new FrameLevelHeader();
+		pdheader = new ProductDefinitionHeader();
+		psheader = new ProductSpecificHeader();
+		reassemblyTable = new ReassemblyTable();
+		registerMetrics(new MetricsRegistry());
 	}
 	
 	public Queue<ProductContainer> getProductContainerQueue(){
@@ -67,236 +133,452 @@ public class NOAAPortReader implements Runnable {
 
 	@Override
 	public void run() {
-		int cnt, dataoff, datalen, deflen;
-		boolean NWSTG = false;
-		boolean GOES = false;
-		boolean prod_compressed = false;
-		FrameLevelHeader flheader = new FrameLevelHeader();
-		ProductDefinitionHeader pdheader = new ProductDefinitionHeader();
-		ProductSpecificHeader psheader = new ProductSpecificHeader();
-		ProductContainer product = new ProductContainer();
 		while (!stopRequest) {
-			int offset = 0;
-			DatagramPacket packet = sharedQueue.poll();
+			// Wakes as soon as a packet arrives; the timeout only bounds how
+			// long a stop request can go unnoticed
+			PacketBuffer packet = sharedQueue.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
 			if (packet == null) {
-				try {
-					Thread.sleep(50);
-				} catch (InterruptedException e) {
-				}
-				continue;
-			}
-			byte[] dataPacket = packet.getData();
-
-			if ((dataPacket[0] & 0xFF) != 255) {
-				// Log that the first packet out of the box is bad
-				System.out.println("Packet does not have a valid start byte.");
 				continue;
 			}
-			if (dataPacket.length < 80) {
-				// log that we couldn't even have enough bytes for all three
-				// headers
-				System.out
-						.println("Less than 80 bytes in packet.  Danger Will Robinson.  Continuing");
-				continue;
-			}
-			if (!flheader.readHeader(dataPacket)) {
-				// should log here that an invalid packet was received.
-				System.out.println("Found a bad packet.  Continuing");
-				continue;
+			try {
+				processPacket(packet.getBuffer(), 0, packet.getLength());
+			} finally {
+				// The fragment bytes have been copied out, so the buffer can be reused
+				packet.release();
 			}
-			if (lastSbnSequenceNumber != -1) {
-				if (flheader.getSequenceNumber() != lastSbnSequenceNumber + 1) {
-					System.out.println("Found a gap!");
-					// Print out
-					// "Gap in SBN sequence number %ld to %ld [skipped %ld]"
-					// last_sbn_seqno, sbn->seqno, sbn->seqno - last_sbn_seqno -
-					// 1);
-					if (flheader.getSequenceNumber() > lastSbnSequenceNumber) {
-						numberMissedPackets = numberMissedPackets
-								+ (flheader.getSequenceNumber()
-										- lastSbnSequenceNumber - 1);
-					}
+		}
+	}
+
+	/**
+	 * Decodes a single SBN frame and adds its data block to the product
+	 * it belongs to.
+	 * 
+	 * @param dataPacket buffer holding the frame
+	 * @param start index of the first byte of the frame
+	 * @param length number of bytes in the frame
+	 */
+	void processPacket(ByteBuffer dataPacket, int start, int length) {
+		processPacket(dataPacket, start, length, System.currentTimeMillis());
+	}
+
+	/**
+	 * Decodes a single SBN frame received at the given time.  Frames being
+	 * reprocessed pass the time they were recorded, so products time out
+	 * as they would have live.
+	 * 
+	 * @param dataPacket buffer holding the frame
+	 * @param start index of the first byte of the frame
+	 * @param length number of bytes in the frame
+	 * @param now when the frame was received, in milliseconds
+	 */
+	void processPacket(ByteBuffer dataPacket, int start, int length, long now) {
+		int dataoff, datalen;
+		boolean NWSTG = false;
+		boolean GOES = false;
+		boolean prod_compressed = false;
+		int offset = 0;
+		ProductContainer product;
+		if (now - lastEviction >= EVICT_INTERVAL_MILLIS || reassemblyTable.isOverLimit()) {
+			evictedProducts.add(reassemblyTable.evict(now));
+			lastEviction = now;
+			reportBadFrames();
+		}
+
+		if ((dataPacket.get(start) & 0xFF) != 255) {
+			// The first packet out of the box is bad
+			badFrames.inc();
+			return;
+		}
+		if (length < 80) {
+			// we couldn't even have enough bytes for all three headers
+			badFrames.inc();
+			return;
+		}
+		if (!flheader.readHeader(dataPacket, start)) {
+			// an invalid packet was received.
+			badFrames.inc();
+			return;
+		}
+		if (trackSbnSequence && lastSbnSequenceNumber != -1) {
+			if (flheader.getSequenceNumber() != lastSbnSequenceNumber + 1) {
+				if (gaps.occurred()) {
+					LOG.warning("Gap in SBN sequence number " + lastSbnSequenceNumber + " to "
+							+ flheader.getSequenceNumber());
+				}
+				if (flheader.getSequenceNumber() > lastSbnSequenceNumber) {
+					numberMissedPackets = numberMissedPackets
+							+ (flheader.getSequenceNumber()
+									- lastSbnSequenceNumber - 1);
 				}
 			}
-			lastSbnSequenceNumber = flheader.getSequenceNumber();
-			if (((flheader.getCommand() != 3) && (flheader.getCommand() != 5))
-					|| (flheader.getVersion() != 1)) {
-				System.out.printf("Unknown sbn command/version %d PUNT\n",
-						flheader.getCommand());
-				continue;
+		}
+		lastSbnSequenceNumber = flheader.getSequenceNumber();
+		if (((flheader.getCommand() != 3) && (flheader.getCommand() != 5))
+				|| (flheader.getVersion() != 1)) {
+			if (punts.occurred()) {
+				LOG.warning("Unknown sbn command/version " + flheader.getCommand() + " PUNT");
 			}
+			return;
+		}
 
-			switch (flheader.getDatastream()) {
-			case 7: /* test */
-			case 6: /* was reserved...now nwstg2 */
-			case 5:
-				NWSTG = true;
-				GOES = false;
-				break;
-			case 1:
-			case 2:
-			case 4:
-				NWSTG = false;
-				GOES = true;
-				break;
-			default:
-				System.out.printf("Unknown NOAAport channel %d PUNT\n",
-						flheader.getDatastream());
-				continue;
-			}
-			offset += flheader.getLength();
-			pdheader.readHeader(dataPacket, offset);
-			if (pdheader.getVersion() != 1) {
-				// log Error: PDH transfer type %u, PUNT",
-				// pdheader.getTransferType();
-				continue;
+		switch (flheader.getDatastream()) {
+		case 7: /* test */
+		case 6: /* was reserved...now nwstg2 */
+		case 5:
+			NWSTG = true;
+			GOES = false;
+			break;
+		case 1:
+		case 2:
+		case 4:
+			NWSTG = false;
+			GOES = true;
+			break;
+		default:
+			if (punts.occurred()) {
+				LOG.warning("Unknown NOAAport channel " + flheader.getDatastream() + " PUNT");
 			}
-			offset += pdheader.getLength();
-			
-			if((pdheader.getTransferType() & 8) > 0){
-				//  Say something about this being a product error!
-			}
-			
-			if((pdheader.getTransferType() & 32) > 0){
-				//  Say something about this being a product abort!
+			return;
+		}
+		offset += flheader.getLength();
+		pdheader.readHeader(dataPacket, start + offset);
+		if (pdheader.getVersion() != 1) {
+			// log Error: PDH transfer type %u, PUNT",
+			// pdheader.getTransferType();
+			return;
+		}
+		offset += pdheader.getLength();
+		// Sequence numbers are only unique within a datastream
+		long productKey = ReassemblyTable.key(flheader.getDatastream(), pdheader.getSequenceNumber());
+		
+		// Fragments of products the filter turned down go no further
+		if (pdheader.getSpecificHeaderLength() == 0
+				&& reassemblyTable.isIgnored(productKey, now)) {
+			ignoredFragments.inc();
+			return;
+		}
+		
+		if((pdheader.getTransferType() & 8) > 0){
+			//  Say something about this being a product error!
+		}
+		
+		if((pdheader.getTransferType() & 32) > 0){
+			//  Say something about this being a product abort!
+			if (reassemblyTable.remove(productKey) != null) {
+				abortedProducts.inc();
 			}
+			return;
+		}
 
-			prod_compressed = ((pdheader.getTransferType() & 16) > 0);
+		prod_compressed = ((pdheader.getTransferType() & 16) > 0);
 
 
-			// Chech to see if this is a new product yet which should contain a PSH
-			if ((pdheader.getSpecificHeaderLength() == 0)
-					&& (pdheader.getTransferType() == 0)) {
-				continue;
+		// Chech to see if this is a new product yet which should contain a PSH
+		if ((pdheader.getSpecificHeaderLength() == 0)
+				&& (pdheader.getTransferType() == 0)) {
+			return;
+		}
+
+		if (pdheader.getSpecificHeaderLength() != 0) {
+			if (flheader.getCommand() == 5) /* timing block */
+			{
+				// if (ulogIsDebug ())
+				// udebug ("Timing block recieved %ld %ld\0", psh->olen,
+				// pdh->len);
+				return; /*
+						 * don't step on our psh of a product struct of prod
+						 * in progress
+						 */
 			}
 
-			if (pdheader.getSpecificHeaderLength() != 0) {
-				System.out.print("NEW PRODUCT!!!! " + pdheader.getTransferType());
-				if (flheader.getCommand() == 5) /* timing block */
-				{
-					// if (ulogIsDebug ())
-					// udebug ("Timing block recieved %ld %ld\0", psh->olen,
-					// pdh->len);
-					continue; /*
-							 * don't step on our psh of a product struct of prod
-							 * in progress
-							 */
-				}
+			if (pdheader.getSpecificHeaderLength() < ProductSpecificHeader.LENGTH
+					|| length < (offset + pdheader.getSpecificHeaderLength())) {
+				// the PSH would be cut short or run past the end of the frame
+				badFrames.inc();
+				return;
+			}
+			psheader.readHeader(dataPacket, start + offset,
+					pdheader.getSpecificHeaderLength());
+			
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine("New product " + pdheader.getSequenceNumber() + ", transfer type " + pdheader.getTransferType()
+						+ ", block " + pdheader.getBlockNumber() + " of " + psheader.getFragments());
+			}
+			
+			offset += pdheader.getSpecificHeaderLength();
 
-				psheader.readHeader(dataPacket, offset,
-						pdheader.getSpecificHeaderLength());
-				
-				System.out.println(" " + pdheader.getBlockNumber() + " " + psheader.getFragments());
-				
-				offset += pdheader.getSpecificHeaderLength();
-
-				if (psheader.getOptionFieldLength() != pdheader
-						.getSpecificHeaderLength()) {
-					// uerror ("ERROR in calculation of psh len %ld %ld", psh->olen, pdh->len);
-					continue;
-				}
-				// if (ulogIsDebug ())
-				// udebug ("len %ld", psh->olen);
-
-				/*
-				 * if (ulogIsDebug ()) udebug
-				 * ("product header flag %d, version %d", psh->hflag,
-				 * psh->version); if (ulogIsDebug ()) udebug
-				 * ("prodspecific data length %ld", psh->psdl); if (ulogIsDebug
-				 * ()) udebug ("bytes per record %ld", psh->bytes_per_record);
-				 * if (ulogIsDebug ()) udebug
-				 * ("Fragments = %ld category %d ptype %d code %d", psh->frags,
-				 * psh->pcat, psh->ptype, psh->pcode); if (psh->frags < 0)
-				 * uerror ("check psh->frags %d", psh->frags); if
-				 * (psh->origrunid != 0) uerror ("original runid %d",
-				 * psh->origrunid); if (ulogIsDebug ()) udebug
-				 * ("next header offset %ld", psh->nhoff); if (ulogIsDebug ())
-				 * udebug ("original seq number %ld", psh->seqno); if
-				 * (ulogIsDebug ()) udebug ("receive time %ld", psh->rectime);
-				 * if (ulogIsDebug ()) udebug ("transmit time %ld",
-				 * psh->transtime); if (ulogIsDebug ()) udebug ("run ID %ld",
-				 * psh->runid); if (ulogIsDebug ()) udebug
-				 * ("original run id %ld", psh->origrunid);
-				 */
-				if (product.isProductStarted()) {
-					product = new ProductContainer();
-					/*  
-					 * Be sure to error info in here (very important).  Basically
-					 * what this means is that a packet came in saying it was the 
-					 * start of a new product but, in reality, we already have a 
-					 * product going.  So, we throw out the old.
-					 */
-				}
-				product.initProduct(pdheader.getSequenceNumber(), psheader.getFragments());
+			if (psheader.getOptionFieldLength() != pdheader
+					.getSpecificHeaderLength()) {
+				// uerror ("ERROR in calculation of psh len %ld %ld", psh->olen, pdh->len);
+				return;
+			}
+			// if (ulogIsDebug ())
+			// udebug ("len %ld", psh->olen);
 
-				if (dataPacket.length < (offset + pdheader.getBlockSize())) {
-					System.out.println("ARGH!!! THIS ISN'T THE RIGHT LENGTH!!!");
-					// uerror ("problem reading datablock");
-					continue;
-				}
-				if(prod_compressed){
-					System.out.println("Found a first packet with a compressed header.  " + pdheader.getBlockOffset());
+			/*
+			 * if (ulogIsDebug ()) udebug
+			 * ("product header flag %d, version %d", psh->hflag,
+			 * psh->version); if (ulogIsDebug ()) udebug
+			 * ("prodspecific data length %ld", psh->psdl); if (ulogIsDebug
+			 * ()) udebug ("bytes per record %ld", psh->bytes_per_record);
+			 * if (ulogIsDebug ()) udebug
+			 * ("Fragments = %ld category %d ptype %d code %d", psh->frags,
+			 * psh->pcat, psh->ptype, psh->pcode); if (psh->frags < 0)
+			 * uerror ("check psh->frags %d", psh->frags); if
+			 * (psh->origrunid != 0) uerror ("original runid %d",
+			 * psh->origrunid); if (ulogIsDebug ()) udebug
+			 * ("next header offset %ld", psh->nhoff); if (ulogIsDebug ())
+			 * udebug ("original seq number %ld", psh->seqno); if
+			 * (ulogIsDebug ()) udebug ("receive time %ld", psh->rectime);
+			 * if (ulogIsDebug ()) udebug ("transmit time %ld",
+			 * psh->transtime); if (ulogIsDebug ()) udebug ("run ID %ld",
+			 * psh->runid); if (ulogIsDebug ()) udebug
+			 * ("original run id %ld", psh->origrunid);
+			 */
+			if (length < (offset + pdheader.getBlockSize())) {
+				if (punts.occurred()) {
+					LOG.warning("First block of product " + pdheader.getSequenceNumber() + " runs past the end of the frame");
 				}
-				psheader.readCCB(dataPacket, offset, pdheader.getBlockSize());
-			} else {
-				/* if a continuation record...don't let psh->pcat get missed */
-				if ((flheader.getDatastream() == 4)
-						&& (psheader.getProductSpecificCategory() != 3)) {
-					GOES = false;
-					NWSTG = true;
-				}
-				psheader.setCcbLength(0);
-				// if (ulogIsDebug ())
-				// udebug ("continuation record");
-				if ((pdheader.getTransferType() & 4) > 0) {
-					psheader.setFragments(0);
-				}
-				if (dataPacket.length < (offset + pdheader.getBlockSize())) {
-					// uerror ("problem reading datablock (cont)");
-					continue;
+				// uerror ("problem reading datablock");
+				return;
+			}
+			if(prod_compressed){
+				LOG.fine("Found a first packet with a compressed header.  " + pdheader.getBlockOffset());
+			}
+			psheader.readCCB(dataPacket, start + offset, pdheader.getBlockSize());
+			if (productFilter != null) {
+				if (!wanted(productFilter)) {
+					// Drops anything already held and everything still to come
+					reassemblyTable.ignore(productKey, now);
+					ignoredFragments.inc();
+					return;
 				}
-				if (!product.isProductStarted()) {
-					// if (ulogIsVerbose ())
-					// uinfo
-					// ("found data block before header, skipping sequence %d frag #%d",
-					// pdh->seqno, pdh->dbno);
-					continue;
+				reassemblyTable.unignore(productKey);
+			}
+			/*
+			 * Other products may still be in progress and stay in the table.
+			 * Fragments of this one may have beaten its header here, in which
+			 * case they are already waiting in the table.
+			 */
+			product = reassemblyTable.get(productKey, now);
+			if (product == null) {
+				product = startProduct(productKey, now);
+			}
+			if (!product.isProductStarted()) {
+				try {
+					product.initProduct(pdheader.getSequenceNumber(), psheader.getFragments());
+				} catch (ProductContainerException e) {
+					LOG.log(Level.WARNING, "Could not start product " + pdheader.getSequenceNumber(), e);
+					reassemblyTable.remove(productKey);
+					return;
 				}
+				product.setDatastream(flheader.getDatastream());
 			}
-			if(pdheader.getBlockNumber() == 0 && prod_compressed){
-				dataoff = flheader.getLength() + pdheader.getLength() + pdheader.getSpecificHeaderLength() + pdheader.getBlockOffset();
-				datalen = pdheader.getBlockSize() - -pdheader.getBlockOffset();
-			} else {
-				dataoff = flheader.getLength() + pdheader.getLength() + pdheader.getSpecificHeaderLength() + psheader.getCcbLength();
-				datalen = pdheader.getBlockSize() - psheader.getCcbLength();
+			product.setProductName(psheader.getProductName());
+			lastProductCategory = psheader.getProductSpecificCategory();
+			product.setProductCategory(lastProductCategory);
+			product.setProductType(psheader.getProductSpecificType());
+			product.setProductCode(psheader.getProductCode());
+		} else {
+			/* if a continuation record...don't let psh->pcat get missed */
+			if ((flheader.getDatastream() == 4)
+					&& (lastProductCategory != 3)) {
+				GOES = false;
+				NWSTG = true;
 			}
-			byte[] rawfrag = new byte[datalen];
-			System.arraycopy(dataPacket, dataoff, rawfrag, 0, datalen);
-			try {
-				product.setProductFragment(pdheader.getSequenceNumber(), pdheader.getBlockNumber(), rawfrag, prod_compressed);
-			} catch (ProductContainerException e) {
-				// Print error here; something went wrong when adding the fragment to the container.
-				e.printStackTrace();
-				product = new ProductContainer();
-				continue;
+			psheader.setCcbLength(0);
+			// if (ulogIsDebug ())
+			// udebug ("continuation record");
+			if ((pdheader.getTransferType() & 4) > 0) {
+				psheader.setFragments(0);
 			}
-			
-			//woot!  we have a complete product!!!!!
-			if(product.getNumberFragments() == 0 || product.getNumberFragments() == pdheader.getBlockNumber() + 1){
-				System.out.println("-------- woot!  we have a complete product");
-				productQueue.add(product);
-				product = new ProductContainer();
+			if (length < (offset + pdheader.getBlockSize())) {
+				// uerror ("problem reading datablock (cont)");
+				return;
 			}
-			
-			//System.out.println(datalen);
-			
+			product = reassemblyTable.get(productKey, now);
+			if (product == null) {
+				// Found a data block before the header.  Hold on to it in case
+				// the header shows up; if not it will age out of the table.
+				product = startProduct(productKey, now);
+				product.setSequenceNumber(pdheader.getSequenceNumber());
+			}
+		}
+		if(pdheader.getBlockNumber() == 0 && prod_compressed){
+			dataoff = flheader.getLength() + pdheader.getLength() + pdheader.getSpecificHeaderLength() + pdheader.getBlockOffset();
+			datalen = pdheader.getBlockSize() - pdheader.getBlockOffset();
+		} else {
+			dataoff = flheader.getLength() + pdheader.getLength() + pdheader.getSpecificHeaderLength() + psheader.getCcbLength();
+			datalen = pdheader.getBlockSize() - psheader.getCcbLength();
+		}
+		long heldBytes = product.getByteCount();
+		try {
+			product.addFragment(pdheader.getSequenceNumber(), pdheader.getBlockNumber(), dataPacket, start + dataoff, datalen, prod_compressed);
+		} catch (ProductContainerException e) {
+			// Something went wrong when adding the fragment to the container.
+			LOG.log(Level.WARNING, "Could not add a fragment to product " + pdheader.getSequenceNumber(), e);
+			reassemblyTable.remove(productKey);
+			return;
+		}
+		// Retransmitted fragments aren't kept, so only count what was
+		reassemblyTable.added((int) (product.getByteCount() - heldBytes));
+		
+		//woot!  we have a complete product!!!!!
+		if(product.isComplete()){
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine("Completed product " + pdheader.getSequenceNumber() + " " + product.getProductName());
+			}
+			reassemblyTable.remove(productKey);
+			completedProducts.inc();
+			productLatency.record(now - product.getReceiveStarted());
+			productQueue.add(product);
+		}
+		
+		//System.out.println(datalen);
+		
+
+		// System.out.println(sharedQueue.size());
+	}
 
-			// System.out.println(sharedQueue.size());
+	/**
+	 * Checks the product whose first block was just read against a filter.
+	 * The product name is only built if the filter can't decide on the WMO
+	 * heading alone.
+	 * 
+	 * @param filter the filter to check against
+	 * @return true if the product is wanted
+	 */
+	private boolean wanted(ProductFilter filter) {
+		WmoHeader heading = psheader.getWmoHeader();
+		if (heading.isValid() && !filter.needsProductName()) {
+			return filter.accept(heading.getTTAAiiCode(), heading.getCCCCCode(), psheader.getProductSpecificCategory(),
+					psheader.getProductSpecificType(), psheader.getProductCode());
 		}
+		return filter.accept(psheader.getProductName(), psheader.getProductSpecificCategory(),
+				psheader.getProductSpecificType(), psheader.getProductCode());
+	}
+
+	/**
+	 * Starts a product in the reassembly table.  A product it replaces is
+	 * counted as evicted, just like one that ages out.
+	 * 
+	 * @param key the product's key in the table
+	 * @param now the current time in milliseconds
+	 * @return an empty container for the product
+	 */
+	private ProductContainer startProduct(long key, long now) {
+		long evicted = reassemblyTable.getEvictedCount();
+		ProductContainer product = reassemblyTable.start(key, now);
+		evictedProducts.add(reassemblyTable.getEvictedCount() - evicted);
+		return product;
+	}
+
+	private void reportBadFrames() {
+		long bad = badFrames.get();
+		if (bad != reportedBadFrames) {
+			LOG.warning("Dropped " + (bad - reportedBadFrames) + " bad frames ("
+					+ flheader.getChecksumFailures() + " checksum failures in total)");
+			reportedBadFrames = bad;
+		}
+	}
+
+	/**
+	 * Gets the number of frames thrown away because they were too short or
+	 * their frame level header was bad.
+	 * 
+	 * @return bad frame count
+	 */
+	public long getBadFrames() {
+		return badFrames.get();
 	}
 
-	public void setSharedQueue(Queue<DatagramPacket> queue) {
+	public void setSharedQueue(SpscRingBuffer<PacketBuffer> queue) {
 		sharedQueue = queue;
 	}
 
+	/**
+	 * Gets the table of products being reassembled, so its limits can be
+	 * adjusted before the reader is started.
+	 * 
+	 * @return the reassembly table
+	 */
+	public ReassemblyTable getReassemblyTable() {
+		return reassemblyTable;
+	}
+
+	/**
+	 * Sets the filter a product's headers are checked against when its first
+	 * block arrives.  Products that are turned down are never reassembled;
+	 * their fragments are dropped as soon as the product definition header
+	 * is read.  Set before the reader is started.
+	 * 
+	 * @param filter the filter, or null to keep every product
+	 */
+	public void setProductFilter(ProductFilter filter) {
+		productFilter = filter;
+	}
+
+	/**
+	 * Gets the number of fragments dropped because their product was turned
+	 * down by the filter.
+	 * 
+	 * @return ignored fragment count
+	 */
+	public long getIgnoredFragments() {
+		return ignoredFragments.get();
+	}
+
+	/**
+	 * Counts this reader's frames and products in a registry, labeled with
+	 * the given labels.  Readers given the same labels share their counters.
+	 * Call before the reader is started.
+	 * 
+	 * @param registry registry to report to
+	 * @param labels label names and values, alternating, such as "channel", "3"
+	 */
+	public void registerMetrics(MetricsRegistry registry, String... labels) {
+		badFrames = registry.counter("noaaport_bad_frames_total", "Frames thrown away for a bad length or frame level header", labels);
+		ignoredFragments = registry.counter("noaaport_ignored_fragments_total", "Fragments dropped because their product was filtered out", labels);
+		completedProducts = registry.counter("noaaport_products_completed_total", "Products reassembled", labels);
+		abortedProducts = registry.counter("noaaport_products_aborted_total", "Products aborted by the uplink", labels);
+		evictedProducts = registry.counter("noaaport_products_evicted_total", "Products thrown out before they were complete", labels);
+		productLatency = registry.histogram("noaaport_product_latency_ms", "Time from first fragment to complete product", Histogram.LATENCY_MILLIS, labels);
+		registry.functionCounter("noaaport_checksum_failures_total", "Frames that failed the SBN checksum", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return flheader.getChecksumFailures();
+			}
+		}, labels);
+		// Read without locking, so these are only approximate
+		registry.gauge("noaaport_products_in_progress", "Products being reassembled", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return reassemblyTable.size();
+			}
+		}, labels);
+		registry.gauge("noaaport_reassembly_bytes", "Fragment bytes held for products being reassembled", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return reassemblyTable.getByteCount();
+			}
+		}, labels);
+	}
+
+	/**
+	 * Tells the thread to stop running.
+	 */
+	public void requestStop() {
+		stopRequest = true;
+	}
+
+	/**
+	 * Turns the SBN sequence gap check on or off.  A reader that is only
+	 * handed some of a channel's frames would otherwise see gaps everywhere.
+	 * 
+	 * @param track true to check for gaps
+	 */
+	void setTrackSbnSequence(boolean track) {
+		trackSbnSequence = track;
+	}
+
 }
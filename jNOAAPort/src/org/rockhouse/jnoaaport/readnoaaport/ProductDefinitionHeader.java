@@ -22,9 +22,15 @@
 
 package org.rockhouse.jnoaaport.readnoaaport;
 
+import java.nio.ByteBuffer;
+
 /**
  * Decodes the product definition header which is the second header in any packet.
  * 
+ * The header is a view over the packet buffer: each field is decoded when
+ * it is asked for, so only the fields that are used get read.  The view is
+ * only good until the buffer is reused.
+ * 
  * This code is based on C code provided by Unidata and available online at 
  * the link below.
  *   
@@ -35,35 +41,27 @@ package org.rockhouse.jnoaaport.readnoaaport;
  */
 public class ProductDefinitionHeader {
 
-	private int version;
-	private int length;
-	private int transferType;
-	private int specificHeaderLength;
-	private short blockNumber;
-	private int blockOffset;
-	private int blockSize;
-	private int recordsPerBlock;
-	private int blocksPerRecord;
-	private int sequenceNumber;
-	private byte[] header;
+	private ByteBuffer packet;
+	private int offset;
 
 	public ProductDefinitionHeader() {
-		header = new byte[16];
 	}
 
 	public boolean readHeader(byte[] packet, int offset) {
-		System.arraycopy(packet, offset, header, 0, 16);
-		version = (header[0] >> 4) & 0x0F;
-		length = (header[0] & 15) * 4;
-		transferType = (header[1] & 0xFF);
-		specificHeaderLength = (((header[2] & 0xFF) << 8) + (header[3] & 0xFF))
-				- length;
-		blockNumber = (short)(((header[4] & 0xFF) << 8) + (header[5] & 0xFF));
-		blockOffset = ((header[6] & 0xFF) << 8) + (header[7] & 0xFF);
-		blockSize = ((header[8] & 0xFF) << 8) + (header[9] & 0xFF);
-		recordsPerBlock = (header[10] & 0xFF);
-		blocksPerRecord = (header[11] & 0xFF);
-		sequenceNumber = (((((((header[12] & 0xFF) << 8) + (header[13] & 0xFF)) << 8) + (header[14] & 0xFF)) << 8) + (header[15] & 0xFF));
+		return readHeader(ByteBuffer.wrap(packet), offset);
+	}
+
+	/**
+	 * Makes this a view of the product definition header starting at the
+	 * given index of the buffer.  The buffer's position is not changed.
+	 * 
+	 * @param packet buffer holding the frame
+	 * @param offset index of the first byte of the header
+	 * @return true if the header was read
+	 */
+	public boolean readHeader(ByteBuffer packet, int offset) {
+		this.packet = packet;
+		this.offset = offset;
 		return true;
 	}
 
@@ -71,69 +69,69 @@ public class ProductDefinitionHeader {
 	 * @return the version
 	 */
 	public int getVersion() {
-		return version;
+		return (packet.get(offset) >> 4) & 0x0F;
 	}
 
 	/**
 	 * @return the length
 	 */
 	public int getLength() {
-		return length;
+		return (packet.get(offset) & 15) * 4;
 	}
 
 	/**
 	 * @return the transferType
 	 */
 	public int getTransferType() {
-		return transferType;
+		return packet.get(offset + 1) & 0xFF;
 	}
 
 	/**
 	 * @return the headerLength
 	 */
 	public int getSpecificHeaderLength() {
-		return specificHeaderLength;
+		return (packet.getShort(offset + 2) & 0xFFFF) - getLength();
 	}
 
 	/**
 	 * @return the blockNumber
 	 */
 	public short getBlockNumber() {
-		return blockNumber;
+		return packet.getShort(offset + 4);
 	}
 
 	/**
 	 * @return the blockOffset
 	 */
 	public int getBlockOffset() {
-		return blockOffset;
+		return packet.getShort(offset + 6) & 0xFFFF;
 	}
 
 	/**
 	 * @return the blockSize
 	 */
 	public int getBlockSize() {
-		return blockSize;
+		return packet.getShort(offset + 8) & 0xFFFF;
 	}
 
 	/**
 	 * @return the recordsPerBlock
 	 */
 	public int getRecordsPerBlock() {
-		return recordsPerBlock;
+		return packet.get(offset + 10) & 0xFF;
 	}
 
 	/**
 	 * @return the blocksPerRecord
 	 */
 	public int getBlocksPerRecord() {
-		return blocksPerRecord;
+		return packet.get(offset + 11) & 0xFF;
 	}
 
 	/**
 	 * @return the sequenceNumber
 	 */
 	public int getSequenceNumber() {
-		return sequenceNumber;
+		return packet.getInt(offset + 12);
 	}
 }
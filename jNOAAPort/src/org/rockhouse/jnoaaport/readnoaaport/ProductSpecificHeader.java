@@ -22,13 +22,17 @@
 
 package org.rockhouse.jnoaaport.readnoaaport;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.ByteBuffer;
 
 /**
  * Decodes the product specific header which is the third header found only on
  * the first packet of a product
  * 
+ * The fixed fields are a view over the packet buffer, decoded when they are
+ * asked for, and are only good until the buffer is reused.  The product 
+ * name and CCB fields are copied out by readCCB and stay good until the 
+ * next product.
+ * 
  * This code is based on C code provided by Unidata and available online at 
  * the link below.
  *   
@@ -38,200 +42,225 @@ import java.util.regex.Pattern;
  *
  */
 public class ProductSpecificHeader {
-	private int pshVersion;
-	private int optionFieldNumber, optionFieldType, optionFieldLength;
-	private int pshFlag;
-	private int psDataLength;
-	private int bytesPerRecord;
-	private int productSpecificType;
-	private int productSpecificCategory;
-	private int productCode;
+	/** Bytes of fixed fields every product specific header carries. */
+	public static final int LENGTH = 36;
+	
+	private ByteBuffer header;
+	private int offset;
+	// Set once the fragment count has been overridden for this product
+	private boolean fragmentsSet;
 	private int fragments;
-	private int nextHeaderOffset;
-	private int source;
-	private long sequenceNumber, receiveTime, transmitTime;
-	private int runID, originalRunID;
 	private String productName;
+	private int nameLength;
 	private boolean hasCCB;
 	private int ccbMode, ccbSubmode;
 	private char[] ccbDataType;
 	private char[] metadata;
 	private int metadataOffset;
-	private static Pattern WMO_HEADER = Pattern.compile("^\\D\\D\\D\\D\\d\\d \\D\\D\\D\\D \\d\\d\\d\\d\\d\\d");
+	private WmoHeader wmoHeader;
+	private static final String UNIDENTIFIABLE = "Unidentifiable product";
 
 	// CCB specific stuff
 	private int ccbB1;
 	private int ccbLength;
 	private int ccbUser1, ccbUser2;
 
+	// Header bytes the product name is made from when it is asked for
+	private byte[] nameBytes;
+
 	public ProductSpecificHeader() {
 		productName = new String();
+		nameBytes = new byte[256];
+		wmoHeader = new WmoHeader();
 		ccbDataType = new char[20];
 		metadata = new char[512];
 		ccbLength = 0;
 	}
 
 	public void readHeader(byte[] packet, int offset, int length) {
-		byte[] header = new byte[length];
-		System.arraycopy(packet, offset, header, 0, length);
+		readHeader(ByteBuffer.wrap(packet), offset, length);
+	}
+
+	/**
+	 * Makes this a view of the product specific header starting at the given
+	 * index of the buffer.  The buffer's position is not changed.
+	 * 
+	 * @param header buffer holding the frame
+	 * @param offset index of the first byte of the header
+	 * @param length length of the header
+	 */
+	public void readHeader(ByteBuffer header, int offset, int length) {
+		this.header = header;
+		this.offset = offset;
+		fragmentsSet = false;
 		hasCCB = false;
 		ccbMode = 0;
 		ccbSubmode = 0;
-		metadata = new char[512];
 		metadataOffset = -1;
-
-		optionFieldNumber = header[0] & 0xFF;
-		optionFieldType = header[1] & 0xFF;
-		optionFieldLength = ((header[2] & 0xFF) << 8) + (header[3] & 0xFF);
-
-		pshVersion = header[4] & 0xFF;
-		pshFlag = header[5] & 0xFF;
-		psDataLength = ((header[6] & 0xFF) << 8) + (header[7] & 0xFF);
-
-		bytesPerRecord = ((header[8] & 0xFF) << 8) + (header[9] & 0xFF);
-
-		productSpecificType = header[10] & 0xFF;
-		productSpecificCategory = header[11] & 0xFF;
-		productCode = ((header[12] & 0xFF) << 8) + (header[13] & 0xFF);
-		fragments = ((header[14] & 0xFF) << 8) + (header[15] & 0xFF);
-		nextHeaderOffset = ((header[16] & 0xFF) << 8) + (header[17] & 0xFF);
-		source = header[19] & 0xFF;
-
-		sequenceNumber = (((((((header[20] & 0xFF) << 8) + (header[21] & 0xFF)) << 8) + (header[22] & 0xFF)) << 8) + (header[23] & 0xFF));
-
-		receiveTime = (((((((header[24] & 0xFF) << 8) + (header[25] & 0xFF)) << 8) + (header[26] & 0xFF)) << 8) + (header[27] & 0xFF));
-		transmitTime = (((((((header[28] & 0xFF) << 8) + (header[29] & 0xFF)) << 8) + (header[30] & 0xFF)) << 8) + (header[31] & 0xFF));
-
-		runID = ((header[32] & 0xFF) << 8) + (header[33] & 0xFF);
-		originalRunID = ((header[34] & 0xFF) << 8) + (header[35] & 0xFF);
 	}
 
 	public boolean readCCB(byte[] packet, int offset, int length) {
-		byte[] ccbHeader = new byte[length];
-		System.arraycopy(packet, offset, ccbHeader, 0, length);
-		ccbLength = 2 * (((ccbHeader[0] & 63) << 8) + (ccbHeader[1] & 0xFF));
-		int wmoLength, wmoOffset = -1;
+		return readCCB(ByteBuffer.wrap(packet), offset, length);
+	}
+
+	/**
+	 * Decodes the CCB and the WMO header that follows it at the start of the
+	 * first data block of a product.  The buffer's position is not changed.
+	 * 
+	 * @param ccbHeader buffer holding the frame
+	 * @param offset index of the first byte of the data block
+	 * @param length length of the data block
+	 * @return true if the CCB is valid
+	 */
+	public boolean readCCB(ByteBuffer ccbHeader, int offset, int length) {
+		ccbLength = 2 * (((ccbHeader.get(offset) & 63) << 8) + (ccbHeader.get(offset + 1) & 0xFF));
+		int wmoLength;
 		if (ccbLength > length) {
 			// uerror
 			// ("invalid ccb length = %d %d %d, blen %d\n",ccb->len,b1,b2,blen);
 
 			/* try a failsafe header, otherwise use our own! */
-			wmoLength = 0;
-			while (((int) ccbHeader[wmoLength] >= 32) && (wmoLength < 256)) {
-				wmoLength++;
-			}
-			if (wmoLength > 0) {
-				productName = new String(ccbHeader, 0, wmoLength);
-			} else {
-				productName = "Unidentifiable product";
-			}
+			wmoHeader.reset();
+			wmoLength = printableLength(ccbHeader, offset, length);
+			setName(ccbHeader, offset, wmoLength);
 			ccbLength = 0;
 			return false;
 		}
-		ccbMode = ccbHeader[10] & 0xFF;
-		ccbSubmode = ccbHeader[11] & 0xFF;
+		ccbMode = ccbHeader.get(offset + 10) & 0xFF;
+		ccbSubmode = ccbHeader.get(offset + 11) & 0xFF;
 		hasCCB = true;
-		ccbUser1 = ccbHeader[12] & 0xFF;
+		ccbUser1 = ccbHeader.get(offset + 12) & 0xFF;
 		ccbUser2 = ccbUser1; // ?!  Not sure here... that's what it is in the Unidata code....
-		String headerSearch = new String(ccbHeader, ccbLength, 18);
-		Matcher wmoSearch = WMO_HEADER.matcher(headerSearch);
-		if(wmoSearch.find()) {
-			productName = headerSearch;
+		int wmoOffset = offset + ccbLength;
+		if (wmoHeader.parse(ccbHeader, wmoOffset, length - ccbLength)) {
+			setName(ccbHeader, wmoOffset, WmoHeader.LENGTH);
 		} else {
-			wmoLength = 0;
-			while (((int) ccbHeader[wmoLength + ccbLength] >= 32) && (wmoLength < 256)) {
-				wmoLength++;
-			}
-			if (wmoLength > 0) {
-				productName = new String(ccbHeader, 0 + ccbLength, wmoLength);
-			} else {
-				productName = "Unidentifiable product";
-			}
+			wmoLength = printableLength(ccbHeader, wmoOffset, length - ccbLength);
+			setName(ccbHeader, wmoOffset, wmoLength);
 		}
 
 		return true;
 	}
 
+	/**
+	 * Counts the printable bytes at the given index, up to the size of the
+	 * name buffer.
+	 */
+	private int printableLength(ByteBuffer buffer, int offset, int length) {
+		int limit = Math.min(length, nameBytes.length);
+		int wmoLength = 0;
+		while ((wmoLength < limit) && (buffer.get(offset + wmoLength) >= 32)) {
+			wmoLength++;
+		}
+		return wmoLength;
+	}
+
+	/**
+	 * Holds on to the bytes of the product name.  The string is only built
+	 * if someone asks for it.
+	 */
+	private void setName(ByteBuffer buffer, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			nameBytes[i] = buffer.get(offset + i);
+		}
+		nameLength = length;
+		productName = null;
+	}
+
 	public int getPshVersion() {
-		return pshVersion;
+		return header.get(offset + 4) & 0xFF;
 	}
 
 	public int getOptionFieldNumber() {
-		return optionFieldNumber;
+		return header.get(offset) & 0xFF;
 	}
 
 	public int getOptionFieldType() {
-		return optionFieldType;
+		return header.get(offset + 1) & 0xFF;
 	}
 
 	public int getOptionFieldLength() {
-		return optionFieldLength;
+		return header.getShort(offset + 2) & 0xFFFF;
 	}
 
 	public int getPshFlag() {
-		return pshFlag;
+		return header.get(offset + 5) & 0xFF;
 	}
 
 	public int getPsDataLength() {
-		return psDataLength;
+		return header.getShort(offset + 6) & 0xFFFF;
 	}
 
 	public int getBytesPerRecord() {
-		return bytesPerRecord;
+		return header.getShort(offset + 8) & 0xFFFF;
 	}
 
 	public int getProductSpecificType() {
-		return productSpecificType;
+		return header.get(offset + 10) & 0xFF;
 	}
 
 	public int getProductSpecificCategory() {
-		return productSpecificCategory;
+		return header.get(offset + 11) & 0xFF;
 	}
 
 	public int getProductCode() {
-		return productCode;
+		return header.getShort(offset + 12) & 0xFFFF;
 	}
 
 	public int getFragments() {
-		return fragments;
+		return fragmentsSet ? fragments : header.getShort(offset + 14) & 0xFFFF;
 	}
 
 	public void setFragments(int frags) {
 		fragments = frags;
+		fragmentsSet = true;
 	}
 
 	public int getNextHeaderOffset() {
-		return nextHeaderOffset;
+		return header.getShort(offset + 16) & 0xFFFF;
 	}
 
 	public int getSource() {
-		return source;
+		return header.get(offset + 19) & 0xFF;
 	}
 
 	public long getSequenceNumber() {
-		return sequenceNumber;
+		return header.getInt(offset + 20);
 	}
 
 	public long getReceiveTime() {
-		return receiveTime;
+		return header.getInt(offset + 24);
 	}
 
 	public long getTransmitTime() {
-		return transmitTime;
+		return header.getInt(offset + 28);
 	}
 
 	public int getRunID() {
-		return runID;
+		return header.getShort(offset + 32) & 0xFFFF;
 	}
 
 	public int getOriginalRunID() {
-		return originalRunID;
+		return header.getShort(offset + 34) & 0xFFFF;
 	}
 
 	public String getProductName() {
+		if (productName == null) {
+			productName = nameLength > 0 ? new String(nameBytes, 0, nameLength) : UNIDENTIFIABLE;
+		}
 		return productName;
 	}
 
+	/**
+	 * Gets the WMO heading found by the last call to readCCB.  Check 
+	 * {@link WmoHeader#isValid()} before using its fields.
+	 * 
+	 * @return the WMO heading
+	 */
+	public WmoHeader getWmoHeader() {
+		return wmoHeader;
+	}
+
 	public boolean hasCCB() {
 		return hasCCB;
 	}
@@ -291,33 +320,33 @@ public class ProductSpecificHeader {
 	public String toString() {
 		return "***********************************************"
 				+ "\nVersion:\t\t\t"
-				+ pshVersion
+				+ getPshVersion()
 				+ "\noption field number:\t\t"
-				+ optionFieldNumber
+				+ getOptionFieldNumber()
 				+ "\noption field type:\t\t"
-				+ optionFieldType
+				+ getOptionFieldType()
 				+ "\noption field length:\t\t"
-				+ optionFieldLength
+				+ getOptionFieldLength()
 				+ "\nproduct specific header flag:\t"
-				+ pshFlag
+				+ getPshFlag()
 				+ "\nproduct specific length:\t"
-				+ psDataLength
+				+ getPsDataLength()
 				+ "\nbytes per record:\t\t"
-				+ bytesPerRecord
+				+ getBytesPerRecord()
 				+ "\nproduct specific type:\t\t"
-				+ productSpecificType
+				+ getProductSpecificType()
 				+ "\nproduct specific category:\t"
-				+ productSpecificCategory
+				+ getProductSpecificCategory()
 				+ "\nproduct code:\t\t\t"
-				+ productCode
+				+ getProductCode()
 				+ "\nfragements:\t\t\t"
-				+ fragments
+				+ getFragments()
 				+ "\nnext header offset:\t\t"
-				+ nextHeaderOffset
+				+ getNextHeaderOffset()
 				+ "\nsource:\t\t\t\t"
-				+ source
+				+ getSource()
 				+ "\nsequence number:\t\t"
-				+ sequenceNumber
+				+ getSequenceNumber()
 				+ "\n***********************************************";
 	}
 
@@ -0,0 +1,472 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.readnoaaport;
+
+import org.rockhouse.jnoaaport.product.ProductContainer;
+
+/**
+ * Holds the products a {@link NOAAPortReader} is in the middle of 
+ * reassembling, keyed by their SBN datastream and product definition header
+ * sequence number.  Sequence numbers are only unique within a datastream, so
+ * a reader fed from several channels keeps their products apart.  Many 
+ * products can be in progress at once so interleaved or retransmitted
+ * products are not thrown away when another one starts.
+ * 
+ * Products that stop receiving fragments are evicted once they get too old,
+ * or when the table holds too many products or too many bytes.  The least
+ * recently updated product is evicted first.
+ * 
+ * The table also remembers the keys of products that were rejected by a
+ * filter, so their remaining fragments can be dropped without being copied.
+ * These age out the same way products do.
+ * 
+ * Keys are kept as primitives in an open addressing table, so looking up a
+ * fragment's product allocates nothing.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class ReassemblyTable {
+
+	public static final int DEFAULT_MAX_PRODUCTS = 256;
+
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	public static final long DEFAULT_MAX_AGE_MILLIS = 60 * 1000;
+
+	public static final int DEFAULT_MAX_IGNORED = 4096;
+
+	private final EntryMap products = new EntryMap();
+
+	private final EntryMap ignored = new EntryMap();
+
+	private int maxIgnored = DEFAULT_MAX_IGNORED;
+
+	private int maxProducts;
+
+	private long maxBytes;
+
+	private long maxAgeMillis;
+
+	private long byteCount;
+
+	private long evictedCount;
+
+	private boolean assembleProducts;
+
+	/**
+	 * Creates a table with the default limits.
+	 */
+	public ReassemblyTable() {
+		this(DEFAULT_MAX_PRODUCTS, DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_MILLIS);
+	}
+
+	/**
+	 * Creates a table with the given limits.
+	 * 
+	 * @param maxProducts most products that can be in progress at once
+	 * @param maxBytes most fragment bytes that can be held at once
+	 * @param maxAgeMillis how long a product can go without a new fragment
+	 */
+	public ReassemblyTable(int maxProducts, long maxBytes, long maxAgeMillis) {
+		this.maxProducts = maxProducts;
+		this.maxBytes = maxBytes;
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	/**
+	 * Makes the key a product is kept under.
+	 * 
+	 * @param datastream the SBN datastream the product is sent on
+	 * @param sequenceNumber the product's sequence number
+	 * @return the key
+	 */
+	public static long key(int datastream, int sequenceNumber) {
+		return ((long) datastream << 32) | (sequenceNumber & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Starts a new product.  If a product with the same key is already in
+	 * progress it is thrown out and replaced.
+	 * 
+	 * @param key the product's key, from {@link #key(int, int)}
+	 * @param now the current time in milliseconds
+	 * @return an empty container for the product
+	 */
+	public ProductContainer start(long key, long now) {
+		Entry old = products.remove(key);
+		if (old != null) {
+			byteCount -= old.product.getByteCount();
+			evictedCount++;
+		}
+		Entry entry = new Entry(key);
+		entry.product = new ProductContainer(assembleProducts);
+		entry.product.setReceiveStarted(now);
+		entry.lastUpdate = now;
+		products.put(entry);
+		return entry.product;
+	}
+
+	/**
+	 * Looks up a product that is in progress and marks it as updated.
+	 * 
+	 * @param key the product's key, from {@link #key(int, int)}
+	 * @param now the current time in milliseconds
+	 * @return the container, or null if no such product is in progress
+	 */
+	public ProductContainer get(long key, long now) {
+		Entry entry = products.get(key);
+		if (entry == null) {
+			return null;
+		}
+		entry.lastUpdate = now;
+		products.touch(entry);
+		return entry.product;
+	}
+
+	/**
+	 * Records that fragment bytes were added to a product in the table.
+	 * 
+	 * @param bytes number of bytes added
+	 */
+	public void added(int bytes) {
+		byteCount += bytes;
+	}
+
+	/**
+	 * Takes a product out of the table, either because it is complete or
+	 * because it can't be completed.
+	 * 
+	 * @param key the product's key, from {@link #key(int, int)}
+	 * @return the container, or null if no such product is in progress
+	 */
+	public ProductContainer remove(long key) {
+		Entry entry = products.remove(key);
+		if (entry == null) {
+			return null;
+		}
+		byteCount -= entry.product.getByteCount();
+		return entry.product;
+	}
+
+	/**
+	 * Marks a product as unwanted.  Any fragments already held for it are
+	 * thrown out.
+	 * 
+	 * @param key the product's key, from {@link #key(int, int)}
+	 * @param now the current time in milliseconds
+	 */
+	public void ignore(long key, long now) {
+		remove(key);
+		Entry entry = ignored.get(key);
+		if (entry == null) {
+			entry = new Entry(key);
+			ignored.put(entry);
+			if (ignored.size() > maxIgnored) {
+				ignored.remove(ignored.eldest().key);
+			}
+		} else {
+			ignored.touch(entry);
+		}
+		entry.lastUpdate = now;
+	}
+
+	/**
+	 * Checks whether a product was marked as unwanted, and if so notes that
+	 * it is still being sent.
+	 * 
+	 * @param key the product's key, from {@link #key(int, int)}
+	 * @param now the current time in milliseconds
+	 * @return true if the product's fragments should be dropped
+	 */
+	public boolean isIgnored(long key, long now) {
+		Entry entry = ignored.get(key);
+		if (entry == null) {
+			return false;
+		}
+		entry.lastUpdate = now;
+		ignored.touch(entry);
+		return true;
+	}
+
+	/**
+	 * Forgets that a product was marked as unwanted, for when its sequence
+	 * number is reused by a product that is wanted.
+	 * 
+	 * @param key the product's key, from {@link #key(int, int)}
+	 */
+	public void unignore(long key) {
+		ignored.remove(key);
+	}
+
+	/**
+	 * Throws out products that have gone too long without a fragment, then
+	 * the least recently updated ones until the table is within its limits.
+	 * 
+	 * @param now the current time in milliseconds
+	 * @return the number of products evicted
+	 */
+	public int evict(long now) {
+		int evicted = 0;
+		Entry eldest;
+		while ((eldest = products.eldest()) != null) {
+			if (now - eldest.lastUpdate <= maxAgeMillis
+					&& products.size() <= maxProducts
+					&& byteCount <= maxBytes) {
+				break;
+			}
+			products.remove(eldest.key);
+			byteCount -= eldest.product.getByteCount();
+			evicted++;
+		}
+		evictedCount += evicted;
+		while ((eldest = ignored.eldest()) != null && now - eldest.lastUpdate > maxAgeMillis) {
+			ignored.remove(eldest.key);
+		}
+		return evicted;
+	}
+
+	/**
+	 * Checks whether the table holds more products or bytes than allowed.
+	 * 
+	 * @return true if {@link #evict(long)} should be called right away
+	 */
+	public boolean isOverLimit() {
+		return products.size() > maxProducts || byteCount > maxBytes;
+	}
+
+	/**
+	 * Returns the number of products in progress.
+	 * 
+	 * @return product count
+	 */
+	public int size() {
+		return products.size();
+	}
+
+	/**
+	 * Returns the number of unwanted products being remembered.
+	 * 
+	 * @return ignored product count
+	 */
+	public int getIgnoredCount() {
+		return ignored.size();
+	}
+
+	/**
+	 * Returns the number of fragment bytes held by products in progress.
+	 * 
+	 * @return byte count
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * Returns how many products have been thrown out before they were
+	 * complete.
+	 * 
+	 * @return eviction count
+	 */
+	public long getEvictedCount() {
+		return evictedCount;
+	}
+
+	/**
+	 * Chooses whether new products copy their fragments into a single 
+	 * direct buffer.
+	 * 
+	 * @param assemble true for assembled containers
+	 * @see ProductContainer#ProductContainer(boolean)
+	 */
+	public void setAssembleProducts(boolean assemble) {
+		assembleProducts = assemble;
+	}
+
+	public void setMaxProducts(int max) {
+		maxProducts = max;
+	}
+
+	public void setMaxBytes(long max) {
+		maxBytes = max;
+	}
+
+	public void setMaxAgeMillis(long max) {
+		maxAgeMillis = max;
+	}
+
+	public void setMaxIgnored(int max) {
+		maxIgnored = max;
+	}
+
+	private static class Entry {
+		final long key;
+		ProductContainer product;
+		long lastUpdate;
+		// Neighbours in update order, eldest first
+		Entry before, after;
+
+		Entry(long key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Entries by key, in a linear probing table, and in the order they were
+	 * last updated.  Only grows; a table that has held many products keeps
+	 * its size.
+	 */
+	private static class EntryMap {
+
+		private static final int INITIAL_CAPACITY = 64;
+
+		private Entry[] slots = new Entry[INITIAL_CAPACITY];
+
+		private int shift = 64 - Integer.numberOfTrailingZeros(INITIAL_CAPACITY);
+
+		private int size;
+
+		private Entry head, tail;
+
+		Entry get(long key) {
+			int mask = slots.length - 1;
+			for (int i = slot(key); ; i = (i + 1) & mask) {
+				Entry entry = slots[i];
+				if (entry == null || entry.key == key) {
+					return entry;
+				}
+			}
+		}
+
+		/**
+		 * Adds an entry as the most recently updated.  There must not be an
+		 * entry with the same key already.
+		 */
+		void put(Entry entry) {
+			if (2 * (size + 1) > slots.length) {
+				grow();
+			}
+			insert(entry);
+			size++;
+			entry.before = tail;
+			entry.after = null;
+			if (tail == null) {
+				head = entry;
+			} else {
+				tail.after = entry;
+			}
+			tail = entry;
+		}
+
+		Entry remove(long key) {
+			int mask = slots.length - 1;
+			int i = slot(key);
+			Entry entry;
+			while ((entry = slots[i]) != null && entry.key != key) {
+				i = (i + 1) & mask;
+			}
+			if (entry == null) {
+				return null;
+			}
+			// Shift later entries of the same run back so lookups still find them
+			slots[i] = null;
+			for (int j = (i + 1) & mask; slots[j] != null; j = (j + 1) & mask) {
+				int home = slot(slots[j].key);
+				boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+				if (!between) {
+					slots[i] = slots[j];
+					slots[j] = null;
+					i = j;
+				}
+			}
+			size--;
+			unlink(entry);
+			return entry;
+		}
+
+		/**
+		 * Marks an entry as the most recently updated.
+		 */
+		void touch(Entry entry) {
+			if (entry != tail) {
+				unlink(entry);
+				entry.before = tail;
+				entry.after = null;
+				tail.after = entry;
+				tail = entry;
+			}
+		}
+
+		/**
+		 * Gets the least recently updated entry.
+		 */
+		Entry eldest() {
+			return head;
+		}
+
+		int size() {
+			return size;
+		}
+
+		private void unlink(Entry entry) {
+			if (entry.before == null) {
+				head = entry.after;
+			} else {
+				entry.before.after = entry.after;
+			}
+			if (entry.after == null) {
+				tail = entry.before;
+			} else {
+				entry.after.before = entry.before;
+			}
+			entry.before = null;
+			entry.after = null;
+		}
+
+		private int slot(long key) {
+			// Fibonacci hashing spreads consecutive sequence numbers out
+			return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+		}
+
+		private void insert(Entry entry) {
+			int mask = slots.length - 1;
+			int i = slot(entry.key);
+			while (slots[i] != null) {
+				i = (i + 1) & mask;
+			}
+			slots[i] = entry;
+		}
+
+		private void grow() {
+			Entry[] old = slots;
+			slots = new Entry[old.length * 2];
+			shift--;
+			for (Entry entry : old) {
+				if (entry != null) {
+					insert(entry);
+				}
+			}
+		}
+	}
+}
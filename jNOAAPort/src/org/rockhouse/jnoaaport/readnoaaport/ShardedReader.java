@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.readnoaaport;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.rockhouse.jnoaaport.dvbs.PacketBuffer;
+import org.rockhouse.jnoaaport.metrics.MetricsRegistry;
+import org.rockhouse.jnoaaport.product.ProductContainer;
+import org.rockhouse.jnoaaport.product.ProductFilter;
+import org.rockhouse.jnoaaport.queue.OverflowPolicy;
+import org.rockhouse.jnoaaport.queue.SpscRingBuffer;
+import org.rockhouse.jnoaaport.queue.WaitStrategy;
+
+/**
+ * Spreads the reassembly of one channel over several threads.  Frames are
+ * taken off a single input queue and handed to one of a fixed set of 
+ * {@link NOAAPortReader} workers based on their product definition header
+ * sequence number, so every frame of a product goes to the same worker and
+ * consecutive products go to different ones.  A large product, such as a
+ * GOES image, no longer holds up the products behind it.
+ * 
+ * All workers put completed products on the same queue.  Products of a
+ * channel can complete in a different order than they were sent.
+ * 
+ * Every worker's queue holds on to packet buffers, so the receiver feeding
+ * this reader needs a pool that covers them as well as its own queue; see
+ * {@link #getBufferCapacity()}.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class ShardedReader implements Runnable {
+
+	private static final long STOP_CHECK_MILLIS = 100;
+
+	private static final int DEFAULT_WORKER_QUEUE_CAPACITY = 64;
+
+	// Index of the byte holding the frame level header's length, in words
+	private static final int FLH_LENGTH_OFFSET = 2;
+
+	// Index of the sequence number in the product definition header
+	private static final int PDH_SEQUENCE_OFFSET = 12;
+
+	private SpscRingBuffer<PacketBuffer> sharedQueue;
+
+	private Queue<ProductContainer> productQueue;
+
+	private NOAAPortReader[] workers;
+
+	private SpscRingBuffer<PacketBuffer>[] workerQueues;
+
+	private Thread[] workerThreads;
+
+	private volatile boolean stopRequest = false;
+
+	/**
+	 * Creates a reader with the given number of workers.
+	 * 
+	 * @param workerCount number of reassembly threads
+	 */
+	public ShardedReader(int workerCount) {
+		this(workerCount, new LinkedBlockingQueue<ProductContainer>());
+	}
+
+	/**
+	 * Creates a reader with the given number of workers which puts completed
+	 * products on the given queue.
+	 * 
+	 * @param workerCount number of reassembly threads
+	 * @param productQueue queue for completed products
+	 */
+	public ShardedReader(int workerCount, Queue<ProductContainer> productQueue) {
+		this(workerCount, productQueue, DEFAULT_WORKER_QUEUE_CAPACITY, WaitStrategy.PARK);
+	}
+
+	/**
+	 * Creates a reader with the given number of workers which puts completed
+	 * products on the given queue.
+	 * 
+	 * @param workerCount number of reassembly threads
+	 * @param productQueue queue for completed products
+	 * @param capacity number of frames each worker's queue can hold
+	 * @param waitStrategy how the workers wait for frames
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ShardedReader(int workerCount, Queue<ProductContainer> productQueue, int capacity, WaitStrategy waitStrategy) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("Need at least one worker: " + workerCount);
+		}
+		this.productQueue = productQueue;
+		workers = new NOAAPortReader[workerCount];
+		workerQueues = new SpscRingBuffer[workerCount];
+		workerThreads = new Thread[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			// Back pressure from a busy worker is pushed onto the input queue,
+			// whose overflow policy decides what gets dropped
+			workerQueues[i] = new SpscRingBuffer<PacketBuffer>(capacity, waitStrategy, OverflowPolicy.BLOCK);
+			workers[i] = new NOAAPortReader(productQueue);
+			workers[i].setSharedQueue(workerQueues[i]);
+			workers[i].setTrackSbnSequence(false);
+		}
+	}
+
+	public Queue<ProductContainer> getProductContainerQueue(){
+		return productQueue;
+	}
+
+	@Override
+	public void run() {
+		for (int i = 0; i < workers.length; i++) {
+			workerThreads[i] = new Thread(workers[i], Thread.currentThread().getName() + "-shard" + i);
+			workerThreads[i].start();
+		}
+		while (!stopRequest) {
+			PacketBuffer packet = sharedQueue.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+			if (packet == null) {
+				continue;
+			}
+			SpscRingBuffer<PacketBuffer> queue = workerQueues[getShard(packet)];
+			if (!queue.offer(packet)) {
+				// Only happens if this thread is interrupted while waiting
+				packet.release();
+			}
+		}
+		for (int i = 0; i < workers.length; i++) {
+			workers[i].requestStop();
+		}
+		for (int i = 0; i < workers.length; i++) {
+			try {
+				workerThreads[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		// Anything still queued will never be read
+		for (SpscRingBuffer<PacketBuffer> queue : workerQueues) {
+			PacketBuffer packet;
+			while ((packet = queue.poll()) != null) {
+				packet.release();
+			}
+		}
+	}
+
+	/**
+	 * Picks the worker for a frame by its product's sequence number.  Frames
+	 * too short to carry a product definition header go to the first worker,
+	 * which will throw them out.
+	 * 
+	 * @param packet the frame
+	 * @return index of the worker
+	 */
+	private int getShard(PacketBuffer packet) {
+		ByteBuffer frame = packet.getBuffer();
+		if (packet.getLength() <= FLH_LENGTH_OFFSET) {
+			return 0;
+		}
+		int sequenceOffset = (frame.get(FLH_LENGTH_OFFSET) & 15) * 4 + PDH_SEQUENCE_OFFSET;
+		if (packet.getLength() < sequenceOffset + 4) {
+			return 0;
+		}
+		return (frame.getInt(sequenceOffset) & 0x7FFFFFFF) % workers.length;
+	}
+
+	/**
+	 * Gets how many packet buffers this reader can hold on to at once: every
+	 * worker's queue full plus the frame each worker is reading.  A receiver
+	 * feeding this reader should add this many buffers to its pool.
+	 * 
+	 * @return number of buffers
+	 */
+	public int getBufferCapacity() {
+		int capacity = 0;
+		for (SpscRingBuffer<PacketBuffer> queue : workerQueues) {
+			capacity += queue.capacity() + 1;
+		}
+		return capacity;
+	}
+
+	public void setSharedQueue(SpscRingBuffer<PacketBuffer> queue) {
+		sharedQueue = queue;
+	}
+
+	/**
+	 * Sets the filter every worker checks new products against.
+	 * 
+	 * @param filter the filter, or null to keep every product
+	 * @see NOAAPortReader#setProductFilter(ProductFilter)
+	 */
+	public void setProductFilter(ProductFilter filter) {
+		for (NOAAPortReader worker : workers) {
+			worker.setProductFilter(filter);
+		}
+	}
+
+	/**
+	 * Counts every worker's frames and products in a registry, each worker
+	 * labeled with its shard number as well as the given labels.
+	 * 
+	 * @param registry registry to report to
+	 * @param labels label names and values, alternating
+	 * @see NOAAPortReader#registerMetrics(MetricsRegistry, String...)
+	 */
+	public void registerMetrics(MetricsRegistry registry, String... labels) {
+		for (int i = 0; i < workers.length; i++) {
+			String[] shardLabels = new String[labels.length + 2];
+			System.arraycopy(labels, 0, shardLabels, 0, labels.length);
+			shardLabels[labels.length] = "shard";
+			shardLabels[labels.length + 1] = String.valueOf(i);
+			workers[i].registerMetrics(registry, shardLabels);
+		}
+	}
+
+	/**
+	 * Tells the thread, and all of its workers, to stop running.
+	 */
+	public void requestStop() {
+		stopRequest = true;
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.readnoaaport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Recognizes a WMO abbreviated heading, "TTAAii CCCC YYGGgg" with an 
+ * optional " BBB", straight out of a packet buffer.  Nothing is allocated
+ * while parsing; the fields are kept as primitives and only turned into
+ * strings when asked for.
+ * 
+ * The ASCII fields are packed big-endian into a number, one byte per 
+ * character, so they can be compared against constants made with
+ * {@link #code(String)} without building a string.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class WmoHeader {
+	
+	/** Length of the heading without the BBB group. */
+	public static final int LENGTH = 18;
+	
+	private static final int BBB_LENGTH = 4;
+	
+	private boolean valid;
+	
+	private long ttaaii;
+	
+	private int cccc;
+	
+	private int day, hour, minute;
+	
+	private int bbb;
+	
+	/**
+	 * Looks for a heading at the given index of the buffer.  The buffer's
+	 * position is not changed.
+	 * 
+	 * @param buffer buffer holding the heading
+	 * @param offset index of the first byte of the heading
+	 * @param length number of bytes available
+	 * @return true if a heading was found
+	 */
+	public boolean parse(ByteBuffer buffer, int offset, int length) {
+		valid = false;
+		if (length < LENGTH) {
+			return false;
+		}
+		// TTAA are letters and ii digits, but anything other than a digit has
+		// always been let through for TTAA and CCCC
+		for (int i = 0; i < 4; i++) {
+			if (isDigit(buffer.get(offset + i))) {
+				return false;
+			}
+		}
+		if (!isDigit(buffer.get(offset + 4)) || !isDigit(buffer.get(offset + 5))
+				|| buffer.get(offset + 6) != ' ') {
+			return false;
+		}
+		for (int i = 7; i < 11; i++) {
+			if (isDigit(buffer.get(offset + i))) {
+				return false;
+			}
+		}
+		if (buffer.get(offset + 11) != ' ') {
+			return false;
+		}
+		for (int i = 12; i < LENGTH; i++) {
+			if (!isDigit(buffer.get(offset + i))) {
+				return false;
+			}
+		}
+		ttaaii = pack(buffer, offset, 6);
+		cccc = (int) pack(buffer, offset + 7, 4);
+		day = twoDigits(buffer, offset + 12);
+		hour = twoDigits(buffer, offset + 14);
+		minute = twoDigits(buffer, offset + 16);
+		bbb = 0;
+		if (length >= LENGTH + BBB_LENGTH && buffer.get(offset + LENGTH) == ' '
+				&& isUpper(buffer.get(offset + LENGTH + 1))
+				&& isUpper(buffer.get(offset + LENGTH + 2))
+				&& isUpper(buffer.get(offset + LENGTH + 3))) {
+			bbb = (int) pack(buffer, offset + LENGTH + 1, 3);
+		}
+		valid = true;
+		return true;
+	}
+	
+	/**
+	 * Forgets the last heading found.
+	 */
+	void reset() {
+		valid = false;
+	}
+	
+	/**
+	 * Packs an ASCII field the way the parsed fields are packed.
+	 * 
+	 * @param field up to eight ASCII characters
+	 * @return the packed field
+	 */
+	public static long code(String field) {
+		long packed = 0;
+		for (int i = 0; i < field.length(); i++) {
+			packed = (packed << 8) | (field.charAt(i) & 0xFF);
+		}
+		return packed;
+	}
+	
+	public boolean isValid() {
+		return valid;
+	}
+	
+	public long getTTAAiiCode() {
+		return ttaaii;
+	}
+	
+	public int getCCCCCode() {
+		return cccc;
+	}
+	
+	public int getDay() {
+		return day;
+	}
+	
+	public int getHour() {
+		return hour;
+	}
+	
+	public int getMinute() {
+		return minute;
+	}
+	
+	public boolean hasBBB() {
+		return bbb != 0;
+	}
+	
+	/**
+	 * Gets the packed BBB group.
+	 * 
+	 * @return the BBB group, or 0 if there isn't one
+	 */
+	public int getBBBCode() {
+		return bbb;
+	}
+	
+	public String getTTAAii() {
+		return unpack(ttaaii, 6);
+	}
+	
+	public String getCCCC() {
+		return unpack(cccc, 4);
+	}
+	
+	public String getYYGGgg() {
+		char[] chars = new char[6];
+		putTwoDigits(chars, 0, day);
+		putTwoDigits(chars, 2, hour);
+		putTwoDigits(chars, 4, minute);
+		return new String(chars);
+	}
+	
+	/**
+	 * Gets the BBB group.
+	 * 
+	 * @return the BBB group, or null if there isn't one
+	 */
+	public String getBBB() {
+		return bbb == 0 ? null : unpack(bbb, 3);
+	}
+	
+	/**
+	 * Returns the heading without the BBB group.
+	 */
+	public String toString() {
+		return valid ? getTTAAii() + " " + getCCCC() + " " + getYYGGgg() : "";
+	}
+	
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+	
+	private static boolean isUpper(byte b) {
+		return b >= 'A' && b <= 'Z';
+	}
+	
+	private static int twoDigits(ByteBuffer buffer, int offset) {
+		return (buffer.get(offset) - '0') * 10 + (buffer.get(offset + 1) - '0');
+	}
+	
+	private static long pack(ByteBuffer buffer, int offset, int length) {
+		long packed = 0;
+		for (int i = 0; i < length; i++) {
+			packed = (packed << 8) | (buffer.get(offset + i) & 0xFF);
+		}
+		return packed;
+	}
+	
+	private static String unpack(long packed, int length) {
+		char[] chars = new char[length];
+		for (int i = length - 1; i >= 0; i--) {
+			chars[i] = (char) (packed & 0xFF);
+			packed >>>= 8;
+		}
+		return new String(chars);
+	}
+	
+	private static void putTwoDigits(char[] chars, int offset, int value) {
+		chars[offset] = (char) ('0' + value / 10);
+		chars[offset + 1] = (char) ('0' + value % 10);
+	}
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+import org.rockhouse.jnoaaport.metrics.Counter;
+import org.rockhouse.jnoaaport.metrics.MetricsRegistry;
+import org.rockhouse.jnoaaport.product.ProductContainer;
+import org.rockhouse.jnoaaport.product.ProductContainerException;
+import org.rockhouse.jnoaaport.product.ProductFilter;
+
+/**
+ * Inflates compressed products on a pool of worker threads before they reach
+ * the product handlers, so one large compressed satellite product doesn't
+ * hold up every text bulletin behind it.
+ * 
+ * Products are handed to workers by their SBN datastream, so products from
+ * the same datastream come out in the order they went in.  The known 
+ * datastreams are spread over the workers busiest first, so NWSTG text never
+ * waits behind GOES imagery when there are enough workers to keep them apart.
+ * Worker queues are unbounded, so a worker stuck on a large product never
+ * holds up the products bound for the others.  Compressed 
+ * products are replaced by an uncompressed copy holding a single fragment;
+ * everything else passes through untouched.  Products rejected by the
+ * stage's {@link ProductFilter} are thrown away before any work is done on
+ * them.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class DecompressionStage implements Runnable {
+	
+	private static final Logger LOG = Logger.getLogger(DecompressionStage.class.getName());
+	
+	private static final long STOP_CHECK_MILLIS = 100;
+	
+	// Known datastreams, busiest first, so NWSTG and GOES never share a worker
+	private static final int[] DATASTREAMS = { 5, 1, 6, 2, 4, 7 };
+	
+	private BlockingQueue<ProductContainer> inputQueue;
+	
+	private BlockingQueue<ProductContainer> outputQueue;
+	
+	private Worker[] workers;
+	
+	private Thread[] workerThreads;
+	
+	private int[] shards = new int[256];
+	
+	private volatile ProductFilter filter;
+	
+	private Counter filteredProducts, inflatedProducts, inflateFailures;
+	
+	private volatile boolean stopRequest = false;
+	
+	/**
+	 * Creates a stage with the given number of workers.
+	 * 
+	 * @param inputQueue queue of completed products
+	 * @param workerCount number of decompression threads
+	 */
+	public DecompressionStage(BlockingQueue<ProductContainer> inputQueue, int workerCount) {
+		this(inputQueue, new LinkedBlockingQueue<ProductContainer>(), workerCount);
+	}
+	
+	/**
+	 * Creates a stage with the given number of workers.
+	 * 
+	 * @param inputQueue queue of completed products
+	 * @param outputQueue queue for decompressed products
+	 * @param workerCount number of decompression threads
+	 */
+	public DecompressionStage(BlockingQueue<ProductContainer> inputQueue, BlockingQueue<ProductContainer> outputQueue, int workerCount) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("Need at least one worker: " + workerCount);
+		}
+		this.inputQueue = inputQueue;
+		this.outputQueue = outputQueue;
+		workers = new Worker[workerCount];
+		workerThreads = new Thread[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new Worker();
+		}
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = i % workerCount;
+		}
+		for (int i = 0; i < DATASTREAMS.length; i++) {
+			shards[DATASTREAMS[i]] = i % workerCount;
+		}
+		registerMetrics(new MetricsRegistry());
+	}
+	
+	/**
+	 * Counts the products this stage inflates and throws away in a 
+	 * registry.  Call before the stage is started.
+	 * 
+	 * @param registry registry to report to
+	 */
+	public void registerMetrics(MetricsRegistry registry) {
+		filteredProducts = registry.counter("noaaport_products_filtered_total", "Products no handler wanted");
+		inflatedProducts = registry.counter("noaaport_products_inflated_total", "Compressed products inflated");
+		inflateFailures = registry.counter("noaaport_inflate_failures_total", "Compressed products that could not be inflated");
+		registry.gauge("noaaport_inflate_queue_depth", "Products waiting for an inflater", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				long depth = 0;
+				for (Worker worker : workers) {
+					depth += worker.queue.size();
+				}
+				return depth;
+			}
+		});
+	}
+	
+	/**
+	 * Gets the queue decompressed products are placed on.
+	 * 
+	 * @return the output queue
+	 */
+	public BlockingQueue<ProductContainer> getOutputQueue() {
+		return outputQueue;
+	}
+
+	/**
+	 * Sets the filter products have to pass to go any further.  A 
+	 * {@link ProductDispatcher} makes a good filter, since it accepts only
+	 * what its handlers want.
+	 * 
+	 * @param filter the filter, or null to pass everything
+	 */
+	public void setProductFilter(ProductFilter filter) {
+		this.filter = filter;
+	}
+
+	@Override
+	public void run() {
+		for (int i = 0; i < workers.length; i++) {
+			workerThreads[i] = new Thread(workers[i], Thread.currentThread().getName() + "-inflate" + i);
+			workerThreads[i].start();
+		}
+		try {
+			while (!stopRequest) {
+				ProductContainer container = inputQueue.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+				if (container == null) {
+					continue;
+				}
+				if (!wanted(container)) {
+					filteredProducts.inc();
+					continue;
+				}
+				// Never waits, so one slow worker can't hold up the rest
+				workers[shards[container.getDatastream() & 0xFF]].queue.add(container);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Worker worker : workers) {
+			worker.stopRequest = true;
+		}
+		for (Thread thread : workerThreads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	private boolean wanted(ProductContainer container) {
+		ProductFilter current = filter;
+		return current == null || current.accept(container.getProductName(), container.getProductCategory(),
+				container.getProductType(), container.getProductCode());
+	}
+	
+	/**
+	 * Tells the thread, and all of its workers, to stop running.
+	 */
+	public void requestStop() {
+		stopRequest = true;
+	}
+	
+	/**
+	 * Inflates the products of the datastreams assigned to it, in order.
+	 */
+	private class Worker implements Runnable {
+		
+		private final BlockingQueue<ProductContainer> queue = new LinkedBlockingQueue<ProductContainer>();
+		
+		private final ProductInflater inflater = new ProductInflater();
+		
+		private final GrowableChannel collector = new GrowableChannel();
+		
+		private volatile boolean stopRequest = false;
+		
+		@Override
+		public void run() {
+			try {
+				while (!stopRequest) {
+					ProductContainer container = queue.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+					if (container == null) {
+						continue;
+					}
+					if (container.isCompressed()) {
+						container = inflate(container);
+						if (container == null) {
+							inflateFailures.inc();
+							continue;
+						}
+						inflatedProducts.inc();
+					}
+					outputQueue.put(container);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				inflater.end();
+			}
+		}
+		
+		private ProductContainer inflate(ProductContainer container) {
+			collector.clear();
+			try {
+				inflater.inflateTo(container, collector);
+				ProductContainer inflated = container.copyDescription(true);
+				inflated.initProduct(container.getSequenceNumber(), 1);
+				ByteBuffer data = collector.getBuffer();
+				inflated.addFragment(container.getSequenceNumber(), (short) 0, data, 0, data.position(), false);
+				return inflated;
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not collect product " + container.getSequenceNumber(), e);
+			} catch (DataFormatException e) {
+				LOG.warning("Could not inflate product " + container.getSequenceNumber() + ": " + e.getLocalizedMessage());
+			} catch (ProductContainerException e) {
+				LOG.log(Level.WARNING, "Could not hold inflated product " + container.getSequenceNumber(), e);
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * A channel that collects everything written to it in a buffer that
+	 * grows as needed and is reused from product to product.
+	 */
+	private static class GrowableChannel implements WritableByteChannel {
+		
+		private ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+		
+		void clear() {
+			buffer.clear();
+		}
+		
+		ByteBuffer getBuffer() {
+			return buffer;
+		}
+		
+		@Override
+		public int write(ByteBuffer src) {
+			int length = src.remaining();
+			if (buffer.remaining() < length) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+			buffer.put(src);
+			return length;
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+}
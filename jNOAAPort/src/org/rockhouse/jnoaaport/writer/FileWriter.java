@@ -23,30 +23,49 @@ package org.rockhouse.jnoaaport.writer;
 
 import java.io.FileOutputStream;
 import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
 
 import org.rockhouse.jnoaaport.product.ProductContainer;
-import org.rockhouse.jnoaaport.product.ProductFragment;
 
 /**
  * An example class which implements the ProductHandlerInterface.  It simply 
- * writes the data to a drive.  
+ * writes the data to a drive.  It can also be driven by a 
+ * {@link ProductDispatcher} as a {@link ProductHandler}.
  * 
  * @author Bryan Rockwood
  *
  */
-public class FileWriter implements ProductHandlerInterface, Runnable{
+public class FileWriter implements ProductHandlerInterface, ProductHandler, Runnable{
+
+	private static final Logger LOG = Logger.getLogger(FileWriter.class.getName());
 
 	Queue<ProductContainer> productQueue;
 	private volatile boolean stopRequest = false;
+	private ProductInflater inflater;
+	private int counter = 0;
+	private final String directory;
+	
+	/**
+	 * Creates a writer that saves products in the default directory.
+	 */
+	public FileWriter() {
+		this("/Users/brock97/data");
+	}
+	
+	/**
+	 * Creates a writer that saves products in the given directory.
+	 * 
+	 * @param directory where to write the products
+	 */
+	public FileWriter(String directory) {
+		this.directory = directory;
+	}
 	
 	@Override
 	public void run() {
-		ProductFragment pf = null;
-		byte[] output = new byte[10000];
-		
-		int counter = 0;
+		start();
 		while (!stopRequest) {
 			ProductContainer container = productQueue.poll();
 			if (container == null) {
@@ -56,45 +75,43 @@ public class FileWriter implements ProductHandlerInterface, Runnable{
 				}
 				continue;
 			} else {
-				String filename = "/Users/brock97/data/noaaport_" + counter + ".bin";
-				try{
-				FileOutputStream fos = new FileOutputStream(filename);
-				while(container.hasFragments()){
-					pf = container.getNextFragment();
-					
-					if(pf.fragmentNumber == 0 && pf.isCompressed){
-						System.out.println("Filename for compressed product:  /Users/brock97/data/noaaport_" + counter + ".bin");
-					}
-					if(pf.isCompressed){
-						Inflater inf = new Inflater();
-						inf.setInput(pf.data);
-						try {
-							int outputsize = inf.inflate(output);
-							if(outputsize == 0){
-								System.out.println(pf.data.length + " " + inf.getTotalIn() + " " + inf.getTotalOut());
-								if(inf.needsDictionary()) System.out.println("Needs dic");
-								if(inf.needsInput()) System.out.println("Needs input");
-							} else {
-								System.out.printf("Input size:  %d, output size:  %d\n", pf.data.length, outputsize);
-								fos.write(output, 0, outputsize);
-							}
-							inf.end();
-						} catch (DataFormatException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-						inf.end();
-					} else {
-						fos.write(pf.data);
-					}
-				}
-				fos.close();
-				} catch (Exception e){
-					System.out.println(e.getLocalizedMessage());
-				}
-				counter++;
+				onProduct(container);
+			}
+		}
+		stop();
+	}
+
+	@Override
+	public void start() {
+		inflater = new ProductInflater();
+	}
+
+	@Override
+	public void onProduct(ProductContainer container) {
+		String filename = directory + "/noaaport_" + counter + ".bin";
+		try{
+		FileOutputStream fos = new FileOutputStream(filename);
+		try{
+			if(!container.isCompressed()){
+				container.writeTo(fos.getChannel());
+			} else {
+				LOG.fine("Filename for compressed product:  " + filename);
+				inflater.inflateTo(container, fos.getChannel());
 			}
+		} catch (DataFormatException e) {
+			LOG.log(Level.WARNING, "Could not inflate " + filename, e);
+		} finally {
+			fos.close();
+		}
+		} catch (Exception e){
+			LOG.warning(e.getLocalizedMessage());
 		}
+		counter++;
+	}
+
+	@Override
+	public void stop() {
+		inflater.end();
 	}
 
 	@Override
@@ -0,0 +1,320 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.writer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.rockhouse.jnoaaport.metrics.MetricsRegistry;
+import org.rockhouse.jnoaaport.product.ProductContainer;
+import org.rockhouse.jnoaaport.product.ProductFilter;
+import org.rockhouse.jnoaaport.queue.OverflowPolicy;
+
+/**
+ * Takes completed products off a queue and pushes each one to every
+ * registered {@link ProductHandler}.  Each handler runs on its own thread
+ * behind its own bounded queue.  Handlers registered with 
+ * {@link OverflowPolicy#DROP} lose products when they fall behind, so a slow
+ * handler can't hold up ingest or the other handlers.  Handlers registered
+ * with {@link OverflowPolicy#BLOCK} never lose products, but once their
+ * queue fills everything else waits on them.
+ * 
+ * A handler can be registered with a {@link ProductFilter}, such as a
+ * {@link RoutingTable}, so it is only handed the products it wants.  The
+ * dispatcher is itself a filter accepting anything at least one handler
+ * wants, so earlier stages can skip the rest.
+ * 
+ * Every handler sees the same container, so handlers must only read it
+ * through its non-destructive methods.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class ProductDispatcher implements Runnable, ProductFilter {
+	
+	private static final Logger LOG = Logger.getLogger(ProductDispatcher.class.getName());
+	
+	private static final long STOP_CHECK_MILLIS = 100;
+	
+	private static final int DEFAULT_HANDLER_QUEUE_CAPACITY = 1024;
+	
+	private BlockingQueue<ProductContainer> productQueue;
+	
+	private List<HandlerQueue> handlers = new ArrayList<HandlerQueue>();
+	
+	private volatile boolean stopRequest = false;
+	
+	/**
+	 * Creates a dispatcher with no handlers.  Register them with 
+	 * {@link #addHandler(ProductHandler, int, OverflowPolicy)} before it is
+	 * started.
+	 * 
+	 * @param productQueue queue of completed products
+	 */
+	public ProductDispatcher(BlockingQueue<ProductContainer> productQueue) {
+		this.productQueue = productQueue;
+	}
+	
+	/**
+	 * Creates a dispatcher delivering products from the queue to the handler
+	 * without dropping any.
+	 * 
+	 * @param productQueue queue of completed products
+	 * @param handler handler to deliver the products to
+	 */
+	public ProductDispatcher(BlockingQueue<ProductContainer> productQueue, ProductHandler handler) {
+		this(productQueue);
+		addHandler(handler, DEFAULT_HANDLER_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+	}
+	
+	/**
+	 * Registers a handler to receive every product.
+	 * 
+	 * @param handler handler to deliver the products to
+	 * @param capacity number of products that can wait for the handler
+	 * @param overflowPolicy what to do with products when the handler's 
+	 * queue is full
+	 */
+	public void addHandler(ProductHandler handler, int capacity, OverflowPolicy overflowPolicy) {
+		addHandler(handler, capacity, overflowPolicy, null);
+	}
+	
+	/**
+	 * Registers a handler to receive the products a filter accepts.
+	 * 
+	 * @param handler handler to deliver the products to
+	 * @param capacity number of products that can wait for the handler
+	 * @param overflowPolicy what to do with products when the handler's 
+	 * queue is full
+	 * @param filter products the handler wants, or null for all of them
+	 */
+	public void addHandler(ProductHandler handler, int capacity, OverflowPolicy overflowPolicy, ProductFilter filter) {
+		handlers.add(new HandlerQueue(handler, capacity, overflowPolicy, filter));
+	}
+	
+	/**
+	 * Gets the number of products a handler has lost because its queue was
+	 * full.
+	 * 
+	 * @param handler a registered handler
+	 * @return number of dropped products
+	 */
+	public long getDropped(ProductHandler handler) {
+		return find(handler).dropped.get();
+	}
+	
+	/**
+	 * Gets the number of products waiting for a handler.
+	 * 
+	 * @param handler a registered handler
+	 * @return number of queued products
+	 */
+	public int getPending(ProductHandler handler) {
+		return find(handler).queue.size();
+	}
+	
+	/**
+	 * Reports each handler's queue depth and dropped products in a registry,
+	 * labeled with the handler's class and position.  Call after every 
+	 * handler has been added.
+	 * 
+	 * @param registry registry to report to
+	 */
+	public void registerMetrics(MetricsRegistry registry) {
+		for (int i = 0; i < handlers.size(); i++) {
+			final HandlerQueue handler = handlers.get(i);
+			String name = handler.handler.getClass().getSimpleName() + i;
+			registry.gauge("noaaport_handler_queue_depth", "Products waiting for a handler", new LongSupplier() {
+				@Override
+				public long getAsLong() {
+					return handler.queue.size();
+				}
+			}, "handler", name);
+			registry.functionCounter("noaaport_handler_dropped_total", "Products a handler lost because its queue was full", new LongSupplier() {
+				@Override
+				public long getAsLong() {
+					return handler.dropped.get();
+				}
+			}, "handler", name);
+		}
+	}
+
+	/**
+	 * Accepts a product if any registered handler wants it.
+	 */
+	@Override
+	public boolean accept(String productName, int category, int type, int code) {
+		for (HandlerQueue handler : handlers) {
+			if (handler.filter == null || handler.filter.accept(productName, category, type, code)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Needs the product name if any registered handler's filter does.
+	 */
+	@Override
+	public boolean needsProductName() {
+		for (HandlerQueue handler : handlers) {
+			if (handler.filter != null && handler.filter.needsProductName()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Accepts a product if any registered handler wants it.
+	 */
+	@Override
+	public boolean accept(long ttaaii, int cccc, int category, int type, int code) {
+		for (HandlerQueue handler : handlers) {
+			if (handler.filter == null || handler.filter.accept(ttaaii, cccc, category, type, code)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void run() {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < handlers.size(); i++) {
+			Thread thread = new Thread(handlers.get(i), Thread.currentThread().getName() + "-handler" + i);
+			thread.start();
+			threads.add(thread);
+		}
+		try {
+			while (!stopRequest) {
+				ProductContainer container = productQueue.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+				if (container == null) {
+					continue;
+				}
+				for (HandlerQueue handler : handlers) {
+					if (handler.wants(container)) {
+						handler.deliver(container);
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (HandlerQueue handler : handlers) {
+			handler.stopRequest = true;
+		}
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Tells the thread, and all of the handler threads, to stop running.
+	 */
+	public void requestStop() {
+		stopRequest = true;
+	}
+	
+	private HandlerQueue find(ProductHandler handler) {
+		for (HandlerQueue candidate : handlers) {
+			if (candidate.handler == handler) {
+				return candidate;
+			}
+		}
+		throw new IllegalArgumentException("Handler is not registered: " + handler);
+	}
+	
+	/**
+	 * A handler together with the queue and thread feeding it.
+	 */
+	private static class HandlerQueue implements Runnable {
+		
+		private final ProductHandler handler;
+		
+		private final ArrayBlockingQueue<ProductContainer> queue;
+		
+		private final OverflowPolicy overflowPolicy;
+		
+		private final ProductFilter filter;
+		
+		private final AtomicLong dropped = new AtomicLong();
+		
+		private volatile boolean stopRequest = false;
+		
+		HandlerQueue(ProductHandler handler, int capacity, OverflowPolicy overflowPolicy, ProductFilter filter) {
+			this.handler = handler;
+			this.queue = new ArrayBlockingQueue<ProductContainer>(capacity);
+			this.overflowPolicy = overflowPolicy;
+			this.filter = filter;
+		}
+		
+		boolean wants(ProductContainer container) {
+			return filter == null || filter.accept(container.getProductName(), container.getProductCategory(),
+					container.getProductType(), container.getProductCode());
+		}
+		
+		void deliver(ProductContainer container) throws InterruptedException {
+			if (overflowPolicy == OverflowPolicy.BLOCK) {
+				queue.put(container);
+			} else if (!queue.offer(container)) {
+				dropped.incrementAndGet();
+			}
+		}
+		
+		@Override
+		public void run() {
+			handler.start();
+			try {
+				while (!stopRequest) {
+					ProductContainer container = queue.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+					if (container == null) {
+						continue;
+					}
+					try {
+						handler.onProduct(container);
+					} catch (RuntimeException e) {
+						// One bad product shouldn't take the handler down with it
+						LOG.log(Level.WARNING, "Handler failed on product " + container.getSequenceNumber(), e);
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				handler.stop();
+			}
+		}
+	}
+}
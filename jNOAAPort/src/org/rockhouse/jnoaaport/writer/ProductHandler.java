@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.writer;
+
+import org.rockhouse.jnoaaport.product.ProductContainer;
+
+/**
+ * A handler that has completed products pushed to it by a 
+ * {@link ProductDispatcher}.  The dispatcher owns the thread; every method
+ * is called from that one thread, so handlers don't need to be thread safe.
+ * Other handlers may be reading the same product at the same time, so it
+ * must only be read through the container's non-destructive methods.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public interface ProductHandler {
+	
+	/**
+	 * Called once before the first product is delivered.
+	 */
+	public void start();
+	
+	/**
+	 * Called for each completed product.
+	 * 
+	 * @param product the completed product
+	 */
+	public void onProduct(ProductContainer product);
+	
+	/**
+	 * Called once after the last product is delivered.
+	 */
+	public void stop();
+}
@@ -27,7 +27,9 @@ import org.rockhouse.jnoaaport.product.ProductContainer;
 
 /**
  * This interface allows a class to be used by an application that will
- * handle the product containers from the NOAAPort reader.
+ * handle the product containers from the NOAAPort reader.  The handler
+ * polls the queue on its own thread; new handlers should implement
+ * {@link ProductHandler} instead and have products pushed to them.
  * 
  * @author Bryan Rockwood
  *
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.rockhouse.jnoaaport.product.ProductContainer;
+import org.rockhouse.jnoaaport.product.ProductFragment;
+
+/**
+ * Inflates compressed products and streams the result to a channel.  One
+ * {@link Inflater} and one output buffer are kept for the life of this 
+ * object and reset between streams, so no native memory is allocated per
+ * fragment and products of any size come out whole.
+ * 
+ * Each compressed fragment usually holds its own zlib stream, but a stream
+ * that runs on into the next fragment is followed, and a fragment holding 
+ * more than one stream is handled too.  Fragments that aren't compressed
+ * are written as they are.
+ * 
+ * Not thread safe; give each thread its own inflater.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class ProductInflater {
+	
+	private static final int OUTPUT_SIZE = 64 * 1024;
+	
+	private final Inflater inflater;
+	
+	private final ByteBuffer output;
+	
+	public ProductInflater() {
+		inflater = new Inflater();
+		output = ByteBuffer.allocateDirect(OUTPUT_SIZE);
+	}
+	
+	/**
+	 * Writes a product to the channel, inflating any compressed fragments.
+	 * 
+	 * @param container the product
+	 * @param channel where to write the product
+	 * @return number of bytes written
+	 * @throws IOException if the channel can't be written to
+	 * @throws DataFormatException if a compressed fragment is corrupt
+	 */
+	public long inflateTo(ProductContainer container, WritableByteChannel channel) throws IOException, DataFormatException {
+		long written = 0;
+		inflater.reset();
+		boolean inStream = false;
+		for (int i = 0; i < container.getFragmentCount(); i++) {
+			ByteBuffer input;
+			boolean isCompressed;
+			if (i < container.getAssembledCount()) {
+				input = container.getAssembledFragment(i);
+				isCompressed = container.isFragmentCompressed(i);
+			} else {
+				ProductFragment pf = container.getFragment(i);
+				if (pf == null) {
+					continue;
+				}
+				input = ByteBuffer.wrap(pf.data);
+				isCompressed = pf.isCompressed;
+			}
+			if (!isCompressed) {
+				if (inStream) {
+					// The last stream was cut short; drop what's left of it
+					inflater.reset();
+					inStream = false;
+				}
+				written += write(input, channel);
+				continue;
+			}
+			inflater.setInput(input);
+			while (true) {
+				output.clear();
+				inflater.inflate(output);
+				output.flip();
+				written += write(output, channel);
+				if (inflater.finished()) {
+					// Any input left over starts another stream
+					inflater.reset();
+					inStream = false;
+					if (!input.hasRemaining()) {
+						break;
+					}
+					inflater.setInput(input);
+				} else if (inflater.needsDictionary()) {
+					throw new DataFormatException("Fragment " + i + " of product " + container.getSequenceNumber() + " needs a preset dictionary.");
+				} else if (inflater.needsInput()) {
+					// The stream carries on into the next fragment
+					inStream = true;
+					break;
+				}
+			}
+		}
+		return written;
+	}
+	
+	/**
+	 * Frees the inflater's native memory.  The object can't be used after
+	 * this.
+	 */
+	public void end() {
+		inflater.end();
+	}
+	
+	private static long write(ByteBuffer data, WritableByteChannel channel) throws IOException {
+		long written = 0;
+		while (data.hasRemaining()) {
+			written += channel.write(data);
+		}
+		return written;
+	}
+}
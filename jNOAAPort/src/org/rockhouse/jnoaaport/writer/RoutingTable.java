@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) 2012 Bryan Rockwood
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ **/
+
+
+package org.rockhouse.jnoaaport.writer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.rockhouse.jnoaaport.product.ProductFilter;
+import org.rockhouse.jnoaaport.readnoaaport.WmoHeader;
+
+/**
+ * A table of routes, in the spirit of an LDM pqact.conf, that picks out the
+ * products a handler wants.  A product is accepted if any route matches it.
+ * A route matches on the product specific category, type and code from the
+ * PSH, any of which may be left open, and a regular expression searched for
+ * in the WMO header.
+ * 
+ * Routes can be read from a text file with one route per line:
+ * 
+ * <pre>
+ * # category type code pattern
+ * *        *    *    ^SXUS2[0-3] KWOH
+ * 3        *    *    .
+ * </pre>
+ * 
+ * A {@code *} leaves a field open.  The pattern is the rest of the line, so
+ * it may contain spaces.  Blank lines and lines starting with {@code #} are
+ * skipped.
+ * 
+ * A pattern that is only the start of a heading, such as {@code ^SXUS2} or
+ * {@code ^SXUS20 KWOH}, is checked against the packed TTAAii and CCCC of the
+ * heading instead, so a table made of such routes never needs the product
+ * name.
+ * 
+ * @author Bryan Rockwood
+ *
+ */
+public class RoutingTable implements ProductFilter {
+	
+	/** Matches any value of a PSH field. */
+	public static final int ANY = -1;
+	
+	// Up to six TTAAii characters, then a space and up to four CCCC characters
+	private static final Pattern HEADING_START = Pattern.compile("\\^([A-Z0-9]{1,6})|\\^([A-Z0-9]{6}) ([A-Z0-9]{1,4})");
+	
+	private List<Route> routes = new ArrayList<Route>();
+	
+	private boolean needsName = false;
+	
+	/**
+	 * Adds a route matching the WMO header against a pattern.
+	 * 
+	 * @param pattern regular expression searched for in the WMO header
+	 */
+	public void addRoute(String pattern) {
+		addRoute(ANY, ANY, ANY, pattern);
+	}
+	
+	/**
+	 * Adds a route.
+	 * 
+	 * @param category product specific category, or {@link #ANY}
+	 * @param type product specific type, or {@link #ANY}
+	 * @param code product code, or {@link #ANY}
+	 * @param pattern regular expression searched for in the WMO header, or
+	 * null to match any header
+	 */
+	public void addRoute(int category, int type, int code, String pattern) {
+		Route route = new Route(category, type, code, pattern == null ? null : Pattern.compile(pattern));
+		if (pattern != null) {
+			Matcher start = HEADING_START.matcher(pattern);
+			if (start.matches()) {
+				if (start.group(1) != null) {
+					route.matchStart(start.group(1), null);
+				} else {
+					route.matchStart(start.group(2), start.group(3));
+				}
+			} else {
+				needsName = true;
+			}
+		}
+		routes.add(route);
+	}
+	
+	/**
+	 * Adds the routes read from a table.
+	 * 
+	 * @param reader source of the table
+	 * @throws IOException if the table can't be read
+	 * @throws IllegalArgumentException if a line isn't a valid route
+	 */
+	public void load(BufferedReader reader) throws IOException {
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\\s+", 4);
+			if (fields.length != 4) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": expected category, type, code and pattern");
+			}
+			try {
+				addRoute(parseField(fields[0]), parseField(fields[1]), parseField(fields[2]), fields[3]);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of routes in the table.
+	 * 
+	 * @return number of routes
+	 */
+	public int size() {
+		return routes.size();
+	}
+
+	@Override
+	public boolean accept(String productName, int category, int type, int code) {
+		for (Route route : routes) {
+			if (route.matches(productName, category, type, code)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Needs the product name if any route's pattern is more than the start
+	 * of a heading.
+	 */
+	@Override
+	public boolean needsProductName() {
+		return needsName;
+	}
+
+	@Override
+	public boolean accept(long ttaaii, int cccc, int category, int type, int code) {
+		if (needsName) {
+			return ProductFilter.super.accept(ttaaii, cccc, category, type, code);
+		}
+		for (Route route : routes) {
+			if (route.matches(ttaaii, cccc, category, type, code)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static int parseField(String field) {
+		if ("*".equals(field)) {
+			return ANY;
+		}
+		return Integer.parseInt(field);
+	}
+	
+	private static class Route {
+		
+		private final int category, type, code;
+		
+		private final Pattern pattern;
+		
+		// The start of the heading the pattern matches, packed, and how far
+		// to shift each field to line it up
+		private long ttaaiiStart;
+		
+		private int ccccStart;
+		
+		private int ttaaiiShift = -1, ccccShift = -1;
+		
+		Route(int category, int type, int code, Pattern pattern) {
+			this.category = category;
+			this.type = type;
+			this.code = code;
+			this.pattern = pattern;
+		}
+		
+		/**
+		 * Makes the route match headings by the start of their fields.
+		 * 
+		 * @param ttaaii start of the TTAAii
+		 * @param cccc start of the CCCC, or null to match any
+		 */
+		void matchStart(String ttaaii, String cccc) {
+			ttaaiiStart = WmoHeader.code(ttaaii);
+			ttaaiiShift = 8 * (6 - ttaaii.length());
+			if (cccc != null) {
+				ccccStart = (int) WmoHeader.code(cccc);
+				ccccShift = 8 * (4 - cccc.length());
+			}
+		}
+		
+		boolean matches(String productName, int productCategory, int productType, int productCode) {
+			if (!matchesPsh(productCategory, productType, productCode)) {
+				return false;
+			}
+			if (pattern == null) {
+				return true;
+			}
+			return productName != null && pattern.matcher(productName).find();
+		}
+		
+		boolean matches(long ttaaii, int cccc, int productCategory, int productType, int productCode) {
+			if (!matchesPsh(productCategory, productType, productCode)) {
+				return false;
+			}
+			if (pattern == null) {
+				return true;
+			}
+			return (ttaaii >>> ttaaiiShift) == ttaaiiStart
+					&& (ccccShift < 0 || (cccc >>> ccccShift) == ccccStart);
+		}
+		
+		private boolean matchesPsh(int productCategory, int productType, int productCode) {
+			return (category == ANY || category == productCategory)
+					&& (type == ANY || type == productType)
+					&& (code == ANY || code == productCode);
+		}
+	}
+}